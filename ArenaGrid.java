@@ -0,0 +1,182 @@
+/**
+ * ArenaGrid: the simulator's world, stored as parallel primitive arrays.<br><br>
+ * Every cell's state lives at index (x*width + y) of a handful of arrays
+ * instead of in a GridCell object of its own, so even a 2048x2048 arena is
+ * a few tens of megabytes and a scan over it is a walk along an array.
+ * Robots are referred to by their simulator id; 0 means no robot.  The
+ * arrays belong to an ArenaStorage: on the heap by default, or in a mapped
+ * file for arenas too big for that.<br><br>
+ * All changes go through the setters, so there is exactly one place to
+ * hook anything that has to know when the world changes.<br><br>
+ * Bitboards of the cells holding each kind of thing are kept alongside
+ * contents, for counting cells in an area or checking a straight line is
+ * clear without looking at every cell.
+ */
+final class ArenaGrid
+{
+     //GridObject and Direction values, indexed by ordinal
+     static final Robot.GridObject[] OBJECTS = Robot.GridObject.values();
+     private static final Robot.Direction[] DIRECTIONS = Robot.Direction.values();
+
+     /**Ordinal of GridObject.EMPTY, as stored in contents[]*/
+     static final byte EMPTY = (byte)(Robot.GridObject.EMPTY.ordinal());
+
+     /**Size of the arena*/
+     final int length, width;
+
+     /**Number of cells*/
+     final int cells;
+
+     //State of every cell
+     private final ArenaStorage storage;
+
+     /**Cells that aren't EMPTY, by column (index x*width + y) and by row
+      * (index y*length + x)*/
+     final Bitboard blocked, blocked_by_row;
+
+     /**Cells holding walls, forts, capsules and robots (SELF)*/
+     final Bitboard walls, forts, capsules, robots;
+
+     //Where changes are logged, if anywhere
+     private ChangeJournal journal;
+
+     /**
+      * Creates an arena of EMPTY cells on the heap.
+      * @param length_ number of columns (x)
+      * @param width_ number of rows (y)
+      */
+     ArenaGrid(int length_, int width_)
+          {
+               this(length_,width_,new HeapArenaStorage(length_*width_));
+          }
+
+     /**
+      * Creates an arena over cells that may already hold a map.  Cells
+      * holding robots are emptied, since the robots aren't coming back.
+      * @param length_ number of columns (x)
+      * @param width_ number of rows (y)
+      * @param storage_ storage for length_*width_ cells
+      */
+     ArenaGrid(int length_, int width_, ArenaStorage storage_)
+          {
+               length = length_;
+               width = width_;
+               cells = length*width;
+               storage = storage_;
+               blocked = new Bitboard(cells);
+               blocked_by_row = new Bitboard(cells);
+               walls = new Bitboard(cells);
+               forts = new Bitboard(cells);
+               capsules = new Bitboard(cells);
+               robots = new Bitboard(cells);
+
+               final byte self = (byte)(Robot.GridObject.SELF.ordinal());
+               for(int i=0; i<cells; i++)
+               {
+                    byte what = storage.getContents(i);
+                    if(what==self)
+                    {
+                         storage.setContents(i,what = EMPTY);
+                         storage.setOccupant(i,0);
+                    }
+                    if(what!=EMPTY)
+                         mark(i,OBJECTS[what]);
+               }
+          }
+
+     /**Keeps the map as it stands, where the storage outlives the simulation; see ArenaStorage.saveMap()*/
+     void saveMap() { storage.saveMap(); }
+
+     /**@return index of cell (x,y) in the arrays*/
+     int index(int x, int y) { return x*width + y; }
+
+     /**@return whether (x,y) lies inside the arena*/
+     boolean contains(int x, int y) { return x >= 0 && x < length && y >= 0 && y < width; }
+
+     /**Logs every change from now on to journal_*/
+     void setJournal(ChangeJournal journal_) { journal = journal_; }
+
+     /**Called by every setter after changing the cell at index*/
+     private void changed(int index)
+          {
+               if(journal!=null)
+                    journal.record(index);
+          }
+
+     /**@return GridObject ordinal of the cell at index (SELF for any robot)*/
+     byte contentsAt(int index) { return storage.getContents(index); }
+
+     Robot.GridObject getContents(int x, int y) { return OBJECTS[storage.getContents(x*width + y)]; }
+
+     void setContents(int x, int y, Robot.GridObject what)
+          {
+               final int index = x*width + y;
+               storage.setContents(index,(byte)(what.ordinal()));
+               mark(index,what);
+               changed(index);
+          }
+
+     //Brings the bitboards in line with the cell at index holding what
+     private void mark(int index, Robot.GridObject what)
+          {
+               blocked.set(index,what!=Robot.GridObject.EMPTY);
+               blocked_by_row.set((index%width)*length + index/width,what!=Robot.GridObject.EMPTY);
+               walls.set(index,what==Robot.GridObject.WALL);
+               forts.set(index,what==Robot.GridObject.FORT);
+               capsules.set(index,what==Robot.GridObject.CAPSULE);
+               robots.set(index,what==Robot.GridObject.SELF);
+          }
+
+     /**
+      * Counts the cells set in board (indexed by column, like contents)
+      * within a rectangle.  Each column of the rectangle is counted a word
+      * at a time.
+      * @return number of set cells with x_left <= x <= x_right and
+      *         y_up <= y <= y_down
+      */
+     int countInRect(Bitboard board, int x_left, int y_up, int x_right, int y_down)
+          {
+               int total = 0;
+               for(int x=x_left; x<=x_right; x++)
+                    total+=board.count(x*width + y_up,x*width + y_down + 1);
+               return total;
+          }
+
+     /**@return fort orientation of cell, or null*/
+     Robot.Direction getOrientation(int x, int y)
+          {
+               final int way = storage.getOrientation(x*width + y);
+               return way==0 ? null : DIRECTIONS[way-1];
+          }
+
+     void setOrientation(int x, int y, Robot.Direction way)
+          {
+               storage.setOrientation(x*width + y,(byte)(way==null ? 0 : way.ordinal()+1));
+               changed(x*width + y);
+          }
+
+     int getHealth(int x, int y) { return storage.getHealth(x*width + y); }
+
+     void setHealth(int x, int y, int value)
+          {
+               storage.setHealth(x*width + y,(short)value);
+               changed(x*width + y);
+          }
+
+     int getCapsulePower(int x, int y) { return storage.getCapsulePower(x*width + y); }
+
+     void setCapsulePower(int x, int y, int power)
+          {
+               storage.setCapsulePower(x*width + y,power);
+               changed(x*width + y);
+          }
+
+     /**@return id of robot in cell, or 0 if none*/
+     int getOccupant(int x, int y) { return storage.getOccupant(x*width + y); }
+
+     void setOccupant(int x, int y, int id)
+          {
+               storage.setOccupant(x*width + y,id);
+               changed(x*width + y);
+          }
+}
@@ -0,0 +1,40 @@
+/**
+ * ArenaStorage: where ArenaGrid keeps the state of its cells.<br><br>
+ * Cells are addressed by ArenaGrid's index (x*width + y).  Values are
+ * stored exactly as ArenaGrid encodes them; the storage doesn't know what
+ * they mean.  HeapArenaStorage keeps them in arrays; MappedArenaStorage
+ * keeps them in a file mapped into memory, for arenas too big to be worth
+ * holding on the heap.
+ */
+interface ArenaStorage
+{
+     /**@return number of cells*/
+     int cells();
+
+     /**GridObject ordinal of the cell*/
+     byte getContents(int index);
+     void setContents(int index, byte value);
+
+     /**Fort orientation: Direction ordinal + 1, or 0 for none*/
+     byte getOrientation(int index);
+     void setOrientation(int index, byte value);
+
+     /**Remaining health of wall or fort*/
+     short getHealth(int index);
+     void setHealth(int index, short value);
+
+     /**Power of capsule lying in the cell*/
+     int getCapsulePower(int index);
+     void setCapsulePower(int index, int value);
+
+     /**Id of robot in the cell, or 0*/
+     int getOccupant(int index);
+     void setOccupant(int index, int value);
+
+     /**
+      * Called once the map is generated, before any robot is placed:
+      * storage that outlives the simulation keeps the map as it is now,
+      * and none of the changes made after.
+      */
+     void saveMap();
+}
@@ -0,0 +1,117 @@
+/**
+ * Bitboard: one bit per arena cell, packed 64 to a long.<br><br>
+ * Answers "how many cells in this run are set?" and "where is the first
+ * set cell in this run?" a word at a time instead of a cell at a time.
+ * Bit i stands for whatever cell index i means to the owner; ArenaGrid
+ * keeps some boards in its usual x*width + y order, where a run is part
+ * of a column, and some transposed (y*length + x), where a run is part of
+ * a row.
+ */
+import java.util.Arrays;
+final class Bitboard
+{
+     private final long[] words;
+
+     /**@param bits number of cells*/
+     Bitboard(int bits) { words = new long[(bits + 63) >>> 6]; }
+
+     /**@return number of cells the board has room for*/
+     int capacity() { return words.length << 6; }
+
+     /**Clears every bit below to*/
+     void clear(int to) { Arrays.fill(words,0,(to + 63) >>> 6,0L); }
+
+     boolean get(int i) { return (words[i >>> 6] & (1L << i))!=0; }
+
+     void set(int i, boolean value)
+          {
+               if(value)
+                    words[i >>> 6] |= 1L << i;
+               else
+                    words[i >>> 6] &= ~(1L << i);
+          }
+
+     /**@return number of set bits from index from (inclusive) to to (exclusive)*/
+     int count(int from, int to)
+          {
+               if(from >= to)
+                    return 0;
+               final int first = from >>> 6, last = (to-1) >>> 6;
+               final long head = -1L << from, tail = -1L >>> -to;
+               if(first==last)
+                    return Long.bitCount(words[first] & head & tail);
+
+               int total = Long.bitCount(words[first] & head) + Long.bitCount(words[last] & tail);
+               for(int w=first+1; w<last; w++)
+                    total+=Long.bitCount(words[w]);
+               return total;
+          }
+
+     /**@return lowest set index from from (inclusive) to to (exclusive), or -1*/
+     int nextSet(int from, int to)
+          {
+               if(from >= to)
+                    return -1;
+               int w = from >>> 6;
+               long word = words[w] & (-1L << from);
+               while(word==0)
+               {
+                    if(++w > (to-1) >>> 6)
+                         return -1;
+                    word = words[w];
+               }
+               final int found = (w << 6) + Long.numberOfTrailingZeros(word);
+               return found < to ? found : -1;
+          }
+
+     /**@return lowest clear index from from (inclusive) to to (exclusive), or -1*/
+     int nextClear(int from, int to)
+          {
+               if(from >= to)
+                    return -1;
+               int w = from >>> 6;
+               long word = ~words[w] & (-1L << from);
+               while(word==0)
+               {
+                    if(++w > (to-1) >>> 6)
+                         return -1;
+                    word = ~words[w];
+               }
+               final int found = (w << 6) + Long.numberOfTrailingZeros(word);
+               return found < to ? found : -1;
+          }
+
+     /**@return highest set index from from (inclusive) to to (exclusive), or -1*/
+     int previousSet(int from, int to)
+          {
+               if(from >= to)
+                    return -1;
+               int w = (to-1) >>> 6;
+               long word = words[w] & (-1L >>> -to);
+               while(word==0)
+               {
+                    if(--w < from >>> 6)
+                         return -1;
+                    word = words[w];
+               }
+               final int found = (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+               return found >= from ? found : -1;
+          }
+
+     /**@return highest clear index from from (inclusive) to to (exclusive), or -1*/
+     int previousClear(int from, int to)
+          {
+               if(from >= to)
+                    return -1;
+               int w = (to-1) >>> 6;
+               long word = ~words[w] & (-1L >>> -to);
+               while(word==0)
+               {
+                    if(--w < from >>> 6)
+                         return -1;
+                    word = ~words[w];
+               }
+               final int found = (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+               return found >= from ? found : -1;
+          }
+}
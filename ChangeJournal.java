@@ -0,0 +1,107 @@
+/**
+ * ChangeJournal: ring buffer recording which arena cells changed on which
+ * turn.<br><br>
+ * ArenaGrid appends the index of every cell it modifies.  Entries are
+ * appended in turn order, so the changes since any point are simply the
+ * newest entries.  Once the ring wraps, the oldest entries are overwritten;
+ * queries reaching back further than what is left report that instead of
+ * returning a partial answer.
+ */
+import java.util.Arrays;
+final class ChangeJournal
+{
+     //Cell index and turn number of each entry; entry n lives at n & mask
+     private final int[] cells, turns;
+     private final int mask;
+
+     //Number of entries ever recorded
+     private long head;
+
+     //Turn that new entries are stamped with
+     private int turn;
+
+     //Stamped marks, used to report each cell only once per query
+     private final int[] reported;
+     private int stamp;
+
+     /**
+      * @param cell_count number of cells in the arena
+      * @param capacity number of entries kept; must be a power of two
+      */
+     ChangeJournal(int cell_count, int capacity)
+          {
+               if(capacity < 1 || (capacity & (capacity-1))!=0)
+                    throw new IllegalArgumentException("journal capacity must be a power of two");
+               cells = new int[capacity];
+               turns = new int[capacity];
+               mask = capacity-1;
+               reported = new int[cell_count];
+          }
+
+     /**Stamps entries recorded from now on with turn_*/
+     void setTurn(int turn_) { turn = turn_; }
+
+     /**Records that the cell at index changed*/
+     void record(int index)
+          {
+               cells[(int)(head & mask)] = index;
+               turns[(int)(head & mask)] = turn;
+               head++;
+          }
+
+     /**@return position marking everything recorded so far, for changedSincePosition()*/
+     long position() { return head; }
+
+     /**
+      * @param since_turn first turn of interest
+      * @return indices of the cells changed during since_turn or later,
+      *         each once, or null if entries that old have been overwritten
+      */
+     int[] changedSinceTurn(int since_turn)
+          {
+               //Find the first entry stamped since_turn or later
+               final long oldest = Math.max(0,head - cells.length);
+               long first = head;
+               while(first > oldest && turns[(int)((first-1) & mask)] >= since_turn)
+                    first--;
+
+               //Reached the end of what we remember: earlier entries of since_turn may be gone
+               if(first==oldest && oldest > 0)
+                    return null;
+               return collect(first);
+          }
+
+     /**
+      * @param position value of position() at the point of interest
+      * @return indices of the cells changed since then, each once, or
+      *         null if entries that old have been overwritten
+      */
+     int[] changedSincePosition(long position)
+          {
+               if(position < head - cells.length)
+                    return null;
+               return collect(position);
+          }
+
+     private int[] collect(long first)
+          {
+               if(++stamp==0)
+               {
+                    Arrays.fill(reported,0);
+                    stamp = 1;
+               }
+
+               int[] to_return = new int[(int)Math.min(head - first,reported.length)];
+               int count = 0;
+               for(long n=first; n<head; n++)
+               {
+                    final int index = cells[(int)(n & mask)];
+                    if(reported[index]!=stamp)
+                    {
+                         reported[index] = stamp;
+                         to_return[count++] = index;
+                    }
+               }
+               return count==to_return.length ? to_return : Arrays.copyOf(to_return,count);
+          }
+}
@@ -48,35 +48,35 @@ public class DemoBot implements Robot
      private static int searchAndDestroy(GridCell self, GridCell[][] neighbors,WorldAPI api,int remaining_power) throws RoboSim.RoboSimExecutionException
           {
                System.out.println("Self: ("+self.x_coord+","+self.y_coord+")");
-               for(int i=0; i<neighbors.length; i++)
-                    for(int j=0; j<neighbors[0].length; j++)
-                         if(neighbors[i][j].contents==GridObject.ENEMY)
-                         {
-                              GridCell[] path = RobotUtility.findShortestPath(self,neighbors[i][j],neighbors);
-                              if(path!=null)
-                                   for(int k=0; k<path.length-1 && remaining_power > 0; k++)
-                                   {
-                                        System.out.println("Move: ("+path[k].x_coord+","+path[k].y_coord+")");
-                                        Direction way = null;
-                                        if(path[k].x_coord < self.x_coord)
-                                             way = Direction.LEFT;
-                                        else if(path[k].x_coord > self.x_coord)
-                                             way = Direction.RIGHT;
-                                        else if(path[k].y_coord < self.y_coord)
-                                             way = Direction.UP;
-                                        else
-                                             way = Direction.DOWN;
-                                        api.move(1,way);
-                                        remaining_power--;
-                                        self = path[k];
-                                   }
 
-                              if(remaining_power > 0 && isAdjacent(self,neighbors[i][j]))
-                              {
-                                   api.meleeAttack(remaining_power,neighbors[i][j]);
-                                   remaining_power = 0;
-                              }
-                         }
+               //One search finds the closest enemy we can reach
+               GridCell[] path = RobotUtility.findShortestPathToAny(self,GridObject.ENEMY,neighbors);
+               if(path==null)
+                    return remaining_power;
+
+               GridCell enemy = path[path.length-1];
+               for(int k=0; k<path.length-1 && remaining_power > 0; k++)
+               {
+                    System.out.println("Move: ("+path[k].x_coord+","+path[k].y_coord+")");
+                    Direction way = null;
+                    if(path[k].x_coord < self.x_coord)
+                         way = Direction.LEFT;
+                    else if(path[k].x_coord > self.x_coord)
+                         way = Direction.RIGHT;
+                    else if(path[k].y_coord < self.y_coord)
+                         way = Direction.UP;
+                    else
+                         way = Direction.DOWN;
+                    api.move(1,way);
+                    remaining_power--;
+                    self = path[k];
+               }
+
+               if(remaining_power > 0 && isAdjacent(self,enemy))
+               {
+                    api.meleeAttack(remaining_power,enemy);
+                    remaining_power = 0;
+               }
 
                return remaining_power;
           }
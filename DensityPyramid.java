@@ -0,0 +1,95 @@
+/**
+ * DensityPyramid: how many robots and how much terrain lie in each block
+ * of the arena, at every power-of-two block size.<br><br>
+ * Level k divides the arena into blocks of 2^k by 2^k cells and keeps two
+ * counts per block: robots, and walls and forts.  SimulatorGUI draws one
+ * block per pixel when cells are too small to see, so a whole 4096x4096
+ * arena can be shown without looking at every cell.  Changing a cell
+ * updates one block per level, so the pyramid is kept current cell by
+ * cell as the game goes on instead of being rebuilt.
+ */
+final class DensityPyramid
+{
+     /**What a cell counts as*/
+     static final byte NOTHING = 0, TERRAIN = 1, ROBOT = 2;
+
+     private final int length, width;
+
+     //What each cell counts as, indexed x*width + y
+     private final byte[] kind;
+
+     //Per level (from 1): blocks along y, and counts indexed bx*height + by
+     private final int[] heights;
+     private final int[][] robots, terrain;
+
+     /**
+      * Creates a pyramid of an arena with nothing in it.
+      * @param length_ number of columns (x) of the arena
+      * @param width_ number of rows (y) of the arena
+      */
+     DensityPyramid(int length_, int width_)
+          {
+               length = length_;
+               width = width_;
+               kind = new byte[length*width];
+
+               //Enough levels for the top one to be a single block
+               int levels = 1;
+               while((length-1) >> levels > 0 || (width-1) >> levels > 0)
+                    levels++;
+               heights = new int[levels+1];
+               robots = new int[levels+1][];
+               terrain = new int[levels+1][];
+               for(int k=1; k<=levels; k++)
+               {
+                    heights[k] = blocks(width,k);
+                    robots[k] = new int[blocks(length,k)*heights[k]];
+                    terrain[k] = new int[robots[k].length];
+               }
+          }
+
+     private static int blocks(int cells, int level) { return (cells + (1 << level) - 1) >> level; }
+
+     /**@return highest level, where the whole arena is one block*/
+     int levels() { return heights.length-1; }
+
+     /**Records that cell (x,y) now counts as what*/
+     void set(int x, int y, byte what)
+          {
+               final int index = x*width + y;
+               final byte was = kind[index];
+               if(was==what)
+                    return;
+               kind[index] = what;
+               for(int k=1; k<heights.length; k++)
+               {
+                    final int block = (x >> k)*heights[k] + (y >> k);
+                    if(was==ROBOT)
+                         robots[k][block]--;
+                    else if(was==TERRAIN)
+                         terrain[k][block]--;
+                    if(what==ROBOT)
+                         robots[k][block]++;
+                    else if(what==TERRAIN)
+                         terrain[k][block]++;
+               }
+          }
+
+     /**@return number of robots in block (bx,by) of level (0 is single cells)*/
+     int robots(int level, int bx, int by)
+          {
+               return level==0 ? (kind[bx*width + by]==ROBOT ? 1 : 0) : robots[level][bx*heights[level] + by];
+          }
+
+     /**@return number of walls and forts in block (bx,by) of level*/
+     int terrain(int level, int bx, int by)
+          {
+               return level==0 ? (kind[bx*width + by]==TERRAIN ? 1 : 0) : terrain[level][bx*heights[level] + by];
+          }
+
+     /**@return whether block (bx,by) of level lies (at least partly) in the arena*/
+     boolean contains(int level, int bx, int by)
+          {
+               return bx >= 0 && by >= 0 && bx < blocks(length,level) && by < blocks(width,level);
+          }
+}
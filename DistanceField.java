@@ -0,0 +1,94 @@
+/**
+ * DistanceField: distances from every cell of a grid to the nearest of a
+ * set of source cells (enemies, capsules, a rally point...).<br><br>
+ * A field is computed once with a multi-source breadth-first search and
+ * never changes afterwards, so any number of robots can share it.  Each
+ * robot then finds its next step toward the sources with a single call to
+ * getNextStep() instead of running its own path search.<br><br>
+ * Like findShortestPath(), paths only pass through EMPTY cells.
+ */
+public final class DistanceField
+{
+     //Geometry of the grid the field was computed on
+     private final int x_offset, y_offset, length, width;
+
+     //Distance of each cell, numbered (x*width + y); -1 if unreachable
+     private final int[] distances;
+
+     DistanceField(int x_offset_, int y_offset_, int length_, int width_, int[] distances_)
+          {
+               x_offset = x_offset_;
+               y_offset = y_offset_;
+               length = length_;
+               width = width_;
+               distances = distances_;
+          }
+
+     /**@return recorded distance of cell, or -1 if unreachable or outside the field*/
+     private int recorded(int x, int y)
+          {
+               x-=x_offset;
+               y-=y_offset;
+               if(x < 0 || x >= length || y < 0 || y >= width)
+                    return -1;
+               return distances[x*width + y];
+          }
+
+     /**
+      * Distance from a cell to the nearest source.<br>
+      * Sources are at distance 0.  For a cell you can't walk through (for
+      * instance the one you are standing in), this is the distance you
+      * would have if you stood there: one more than its best neighbor.
+      * @param x x-coordinate of cell
+      * @param y y-coordinate of cell
+      * @return number of steps, or -1 if no source can be reached
+      */
+     public int getDistance(int x, int y)
+          {
+               int d = recorded(x,y);
+               if(d!=-1)
+                    return d;
+
+               int best = -1, n;
+               if((n=recorded(x-1,y))!=-1 && (best==-1 || n < best)) best = n;
+               if((n=recorded(x+1,y))!=-1 && (best==-1 || n < best)) best = n;
+               if((n=recorded(x,y-1))!=-1 && (best==-1 || n < best)) best = n;
+               if((n=recorded(x,y+1))!=-1 && (best==-1 || n < best)) best = n;
+               return best==-1 ? -1 : best+1;
+          }
+
+     /**
+      * Which way to go from a cell to get closer to the nearest source.<br>
+      * If a source is adjacent, this points at the source itself (which you
+      * usually can't move onto); getDistance()==1 tells you that case.
+      * @param x x-coordinate of cell
+      * @param y y-coordinate of cell
+      * @return direction of the best neighbor, or null if there is none
+      *         (no source reachable, or the cell is itself a source)
+      */
+     public Robot.Direction getNextStep(int x, int y)
+          {
+               if(recorded(x,y)==0)
+                    return null;
+
+               Robot.Direction best_way = null;
+               int best = -1, n;
+               if((n=recorded(x-1,y))!=-1 && (best==-1 || n < best)) { best = n; best_way = Robot.Direction.LEFT; }
+               if((n=recorded(x+1,y))!=-1 && (best==-1 || n < best)) { best = n; best_way = Robot.Direction.RIGHT; }
+               if((n=recorded(x,y-1))!=-1 && (best==-1 || n < best)) { best = n; best_way = Robot.Direction.UP; }
+               if((n=recorded(x,y+1))!=-1 && (best==-1 || n < best)) { best = n; best_way = Robot.Direction.DOWN; }
+               return best_way;
+          }
+
+     /**@return x-coordinate of the field's left column*/
+     public int getXOffset() { return x_offset; }
+
+     /**@return y-coordinate of the field's top row*/
+     public int getYOffset() { return y_offset; }
+
+     /**@return number of columns covered by the field*/
+     public int getLength() { return length; }
+
+     /**@return number of rows covered by the field*/
+     public int getWidth() { return width; }
+}
@@ -0,0 +1,265 @@
+/**
+ * HeadlessLauncher: runs a match or a tournament with no display at all,
+ * configured by a properties file and/or key=value arguments.<br><br>
+ * Nothing here touches AWT (and java.awt.headless is set in case a robot
+ * does), so it starts quickly and runs anywhere a JVM does: build
+ * servers, containers, ssh sessions.<br><br>
+ * Usage: java HeadlessLauncher [config.properties] [key=value ...]<br>
+ * Arguments override the file.  Keys:<br>
+ * mode: match (default) plays one match; tournament plays a round-robin
+ *               tournament through TournamentRunner<br>
+ * players: comma-separated Robot class names (required)<br>
+ * size, skill, robots, obstacles: arena as LENGTHxWIDTH, skill points,
+ *               robots per player, obstacles (default 20x20, 20, 5, 30)<br>
+ * seed: seed of the match or tournament (default: random)<br>
+ * turns: turns after which a match is a draw (default 5000)<br>
+ * wall-limit, cpu-limit, forfeit: time limits on act() in milliseconds,
+ *               and whether breaking one destroys the robot (default: no
+ *               limits, false)<br>
+ * out: results file, or - for standard output (default results.tsv)<br>
+ * match mode only: map: file to keep the arena in (see RoboSim's
+ *               constructor); simultaneous: threads robots decide on at
+ *               once, or 0 for one at a time (default 0); replay: file to
+ *               record the match to for ReplayReader and SimulatorGUI;
+ *               keyframes: turns between keyframes in it (default 64)<br>
+ * tournament mode only: per-match, games, threads: as for
+ *               TournamentRunner (default 2, 1, number of cores)<br><br>
+ * Results are written in TournamentRunner's format; in match mode the
+ * final standings are printed too.
+ */
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+public class HeadlessLauncher
+{
+     //Every key we understand, so a misspelt one is caught instead of ignored
+     private static final HashSet<String> KEYS = new HashSet<String>(Arrays.asList(
+          "mode","players","size","skill","robots","obstacles","seed","turns","wall-limit","cpu-limit","forfeit","out",
+          "map","simultaneous","replay","keyframes","per-match","games","threads"));
+
+     private final Properties config;
+
+     /**@param config_ settings, with the keys described above*/
+     public HeadlessLauncher(Properties config_)
+          {
+               for(String key : config_.stringPropertyNames())
+                    if(!KEYS.contains(key))
+                         throw new IllegalArgumentException("Unknown setting "+key);
+               config = config_;
+          }
+
+     private String get(String key, String default_value) { return config.getProperty(key,default_value).trim(); }
+
+     private int getInt(String key, int default_value)
+          {
+               String value = get(key,Integer.toString(default_value));
+               try
+               {
+                    return Integer.parseInt(value);
+               }
+               catch(NumberFormatException e)
+               {
+                    throw new IllegalArgumentException("Invalid "+key+" (not an integer): "+value);
+               }
+          }
+
+     private long getLong(String key, long default_value)
+          {
+               String value = get(key,Long.toString(default_value));
+               try
+               {
+                    return Long.parseLong(value);
+               }
+               catch(NumberFormatException e)
+               {
+                    throw new IllegalArgumentException("Invalid "+key+" (not an integer): "+value);
+               }
+          }
+
+     /**@return the configured arena size as {length, width}*/
+     private int[] getSize()
+          {
+               String value = get("size","20x20");
+               String[] size = value.split("x");
+               try
+               {
+                    if(size.length==2)
+                         return new int[]{ Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()) };
+               }
+               catch(NumberFormatException e)
+               {
+               }
+               throw new IllegalArgumentException("Invalid size (not LENGTHxWIDTH): "+value);
+          }
+
+     private String[] getPlayers()
+          {
+               String value = get("players","");
+               if(value.equals(""))
+                    throw new IllegalArgumentException("No players given");
+               String[] players = value.split(",");
+               for(int i=0; i<players.length; i++)
+                    players[i] = players[i].trim();
+               return players;
+          }
+
+     /**
+      * Runs what the configuration asks for.
+      * @return the results, one per match
+      */
+     public TournamentRunner.MatchResult[] run() throws IOException, InterruptedException, RoboSim.RoboSimExecutionException
+          {
+               String mode = get("mode","match");
+               if(!mode.equals("match") && !mode.equals("tournament"))
+                    throw new IllegalArgumentException("Invalid mode (not match or tournament): "+mode);
+               if(mode.equals("match"))
+               {
+                    if(config.getProperty("per-match")!=null || config.getProperty("games")!=null || config.getProperty("threads")!=null)
+                         throw new IllegalArgumentException("per-match, games and threads are for tournaments");
+               }
+               else if(config.getProperty("map")!=null || config.getProperty("simultaneous")!=null || config.getProperty("replay")!=null || config.getProperty("keyframes")!=null)
+                    throw new IllegalArgumentException("map, simultaneous, replay and keyframes are for single matches");
+
+               String out_name = get("out","results.tsv");
+               PrintWriter out = out_name.equals("-") ? new PrintWriter(new OutputStreamWriter(System.out)) : new PrintWriter(new FileWriter(out_name));
+               try
+               {
+                    return mode.equals("match") ? runMatch(out) : runTournament(out);
+               }
+               finally
+               {
+                    if(out_name.equals("-"))
+                         out.flush();
+                    else
+                         out.close();
+               }
+          }
+
+     private TournamentRunner.MatchResult[] runMatch(PrintWriter out) throws IOException, RoboSim.RoboSimExecutionException
+          {
+               final String[] players = getPlayers();
+               final int[] size = getSize();
+               final long seed = getLong("seed",new SplittableRandom().nextLong());
+               final int skill_points = getInt("skill",20), robots = getInt("robots",5), obstacles = getInt("obstacles",30);
+               final String map = config.getProperty("map");
+               final int simultaneous = getInt("simultaneous",0);
+               final int max_turns = getInt("turns",5000);
+               final String replay_file = config.getProperty("replay");
+               final int keyframes = getInt("keyframes",64);
+               if(max_turns <= 0 || simultaneous < 0 || keyframes <= 0)
+                    throw new IllegalArgumentException("turns and keyframes must be positive and simultaneous can't be negative");
+
+               RoboSim sim = (map==null) ? new RoboSim(players,robots,skill_points,size[0],size[1],obstacles,seed)
+                                         : new RoboSim(players,robots,skill_points,size[0],size[1],obstacles,seed,new File(map.trim()));
+               sim.setTimeLimits(getLong("wall-limit",0),getLong("cpu-limit",0),Boolean.parseBoolean(get("forfeit","false")));
+               ExecutorService pool = null;
+               if(simultaneous > 0)
+               {
+                    pool = Executors.newFixedThreadPool(simultaneous);
+                    sim.setSimultaneousTurns(pool);
+               }
+               ReplayWriter replay = null;
+               if(replay_file!=null)
+               {
+                    replay = new ReplayWriter(new File(replay_file.trim()),keyframes);
+                    sim.setReplay(replay);
+               }
+
+               TournamentRunner.MatchResult result;
+               try
+               {
+                    result = TournamentRunner.playMatch(0,players,sim,max_turns);
+               }
+               finally
+               {
+                    if(pool!=null)
+                         pool.shutdownNow();
+                    if(replay!=null)
+                         replay.close();
+               }
+
+               out.println(TournamentRunner.HEADER);
+               out.println(result);
+
+               System.out.println((result.winner!=null ? "Winner: "+result.winner : "No winner")+" after "+result.turns+" turns (seed "+seed+")");
+               if(result.error!=null)
+                    System.out.println("Stopped: "+result.error);
+               for(RoboSim.Standing standing : sim.getStandings())
+                    System.out.println(standing.player+"\t"+standing.robots+" robots\t"+standing.health+" health\t"+standing.charge+" charge");
+               return new TournamentRunner.MatchResult[]{ result };
+          }
+
+     private TournamentRunner.MatchResult[] runTournament(PrintWriter out) throws InterruptedException
+          {
+               final String[] players = getPlayers();
+               final int[] size = getSize();
+               final long seed = getLong("seed",new SplittableRandom().nextLong());
+               final int threads = getInt("threads",Runtime.getRuntime().availableProcessors());
+               List<String[]> matches = TournamentRunner.roundRobin(players,getInt("per-match",2),getInt("games",1));
+               TournamentRunner runner = new TournamentRunner(size[0],size[1],getInt("skill",20),getInt("robots",5),getInt("obstacles",30),getInt("turns",5000),threads);
+               runner.setTimeLimits(getLong("wall-limit",0),getLong("cpu-limit",0),Boolean.parseBoolean(get("forfeit","false")));
+
+               long start = System.nanoTime();
+               TournamentRunner.MatchResult[] results = runner.run(matches,seed,out);
+               System.out.println(matches.size()+" matches on "+threads+" threads in "+(System.nanoTime()-start)/1000000+" ms (seed "+seed+")");
+               return results;
+          }
+
+     public static void main(String[] args) throws IOException, InterruptedException
+          {
+               //Keep AWT from looking for a display, should anything load it
+               System.setProperty("java.awt.headless","true");
+
+               Properties config = new Properties();
+               for(String arg : args)
+               {
+                    int equals = arg.indexOf('=');
+                    if(equals!=-1)
+                         config.setProperty(arg.substring(0,equals).trim(),arg.substring(equals+1));
+                    else
+                    {
+                         //Settings already given on the command line win over the file
+                         Properties file = new Properties();
+                         Reader in = new FileReader(arg);
+                         try
+                         {
+                              file.load(in);
+                         }
+                         finally
+                         {
+                              in.close();
+                         }
+                         for(String key : file.stringPropertyNames())
+                              if(config.getProperty(key)==null)
+                                   config.setProperty(key,file.getProperty(key));
+                    }
+               }
+
+               try
+               {
+                    new HeadlessLauncher(config).run();
+               }
+               catch(IllegalArgumentException e)
+               {
+                    System.err.println(e.getMessage());
+                    System.err.println("Usage: java HeadlessLauncher [config.properties] [key=value ...]");
+                    System.exit(1);
+               }
+               catch(RoboSim.RoboSimExecutionException e)
+               {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+               }
+          }
+}
@@ -0,0 +1,39 @@
+/**
+ * HeapArenaStorage: arena cells kept in parallel arrays on the heap.  The
+ * default, and the quickest for any arena that fits comfortably in memory.
+ */
+final class HeapArenaStorage implements ArenaStorage
+{
+     private final byte[] contents, orientation;
+     private final short[] health;
+     private final int[] capsule_power, occupant;
+
+     HeapArenaStorage(int cells)
+          {
+               contents = new byte[cells];
+               orientation = new byte[cells];
+               health = new short[cells];
+               capsule_power = new int[cells];
+               occupant = new int[cells];
+          }
+
+     public int cells() { return contents.length; }
+
+     public byte getContents(int index) { return contents[index]; }
+     public void setContents(int index, byte value) { contents[index] = value; }
+
+     public byte getOrientation(int index) { return orientation[index]; }
+     public void setOrientation(int index, byte value) { orientation[index] = value; }
+
+     public short getHealth(int index) { return health[index]; }
+     public void setHealth(int index, short value) { health[index] = value; }
+
+     public int getCapsulePower(int index) { return capsule_power[index]; }
+     public void setCapsulePower(int index, int value) { capsule_power[index] = value; }
+
+     public int getOccupant(int index) { return occupant[index]; }
+     public void setOccupant(int index, int value) { occupant[index] = value; }
+
+     //Nothing outlives the simulation
+     public void saveMap() {}
+}
@@ -0,0 +1,713 @@
+/**
+ * HierarchicalPathfinder: long-range path planner for very large grids
+ * (HPA*).<br><br>
+ * The grid is cut into square clusters.  Wherever two neighboring
+ * clusters touch across open terrain there is an entrance, and for every
+ * cluster the planner precomputes how far apart its entrances are from
+ * inside the cluster.  A query then only searches that small graph of
+ * entrances and fills in the cell-by-cell route cluster by cluster
+ * afterward, instead of searching the whole grid.<br><br>
+ * Only terrain is taken into account: walls, forts and construction sites
+ * block movement; robots and capsules move around too often to be worth
+ * encoding and are treated as open.  Routes are therefore plans to follow
+ * and re-check locally, and are close to, but not always exactly, the
+ * shortest possible.<br><br>
+ * When terrain changes, call cellChanged() and only the affected clusters
+ * are recomputed.  A planner is not safe to use from several threads.
+ */
+import java.util.Arrays;
+public class HierarchicalPathfinder
+{
+     /**Default width and height of a cluster, in cells*/
+     public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+     //Open stretches of border at least this long get an entrance at each end instead of one in the middle
+     private static final int LONG_ENTRANCE = 6;
+
+     //Grid being planned over (null when planning over an ArenaGrid)
+     private final Robot.GridCell[][] grid;
+     private final int length, width, x_offset, y_offset;
+
+     //Cluster layout
+     private final int cluster_size, clusters_x, clusters_y;
+
+     //Terrain, indexed (x*width + y): true where movement is blocked
+     private final boolean[] obstacle;
+
+     /*Entrances on the border to the right of and below each cluster,
+       stored as pairs of (cell in this cluster, cell across the border)*/
+     private final int[][] right_border;
+     private final int[][] lower_border;
+
+     /*Per-cluster abstract graph: entrance cells, the cells across the
+       border from each entrance, and the distances between entrances
+       inside the cluster (n*n, -1 if unreachable)*/
+     private final int[][] portals;
+     private final int[][][] partners;
+     private final int[][] intra;
+
+     /*Global numbering of entrances, rebuilt lazily after changes.
+       Entrance ids are portal_base[cluster]+local index; the start and
+       goal of a query get the two ids after the last entrance.*/
+     private boolean ids_dirty = true;
+     private int[] portal_base;
+     private int[] id_cell;
+     private int[] id_cluster;
+     private int[][] id_partners;
+     private int total_portals;
+
+     //Scratch space for searches inside one cluster
+     private int[] local_dist, local_parent, local_queue;
+
+     //Scratch space for the abstract search
+     private int[] g_score = new int[0], parent = new int[0], seen = new int[0], closed = new int[0];
+     private int[] heap_f = new int[16], heap_id = new int[16];
+     private int heap_size, stamp;
+
+     //Cell the best route found so far enters the goal from
+     private int goal_entry;
+
+     /**
+      * Builds a planner using clusters of DEFAULT_CLUSTER_SIZE cells.
+      * @param grid_ grid to plan over; keep using the same cell objects and
+      *              report terrain changes with cellChanged()
+      */
+     public HierarchicalPathfinder(Robot.GridCell[][] grid_)
+          {
+               this(grid_,DEFAULT_CLUSTER_SIZE);
+          }
+
+     /**
+      * Builds a planner.
+      * @param grid_ grid to plan over; keep using the same cell objects and
+      *              report terrain changes with cellChanged()
+      * @param cluster_size_ width and height of a cluster, in cells
+      */
+     public HierarchicalPathfinder(Robot.GridCell[][] grid_, int cluster_size_)
+          {
+               this(grid_,grid_.length,grid_[0].length,grid_[0][0].x_coord,grid_[0][0].y_coord,cluster_size_);
+               for(int i=0; i<length; i++)
+                    for(int j=0; j<width; j++)
+                         obstacle[i*width + j] = isObstacle(grid[i][j].contents);
+               buildClusters();
+          }
+
+     /**
+      * Builds a planner over the simulator's arena.  Use findRoute() and
+      * cellChanged(int,int,GridObject) with it.
+      * @param arena arena to plan over
+      */
+     HierarchicalPathfinder(ArenaGrid arena)
+          {
+               this(null,arena.length,arena.width,0,0,DEFAULT_CLUSTER_SIZE);
+               for(int i=0; i<obstacle.length; i++)
+                    obstacle[i] = isObstacle(ArenaGrid.OBJECTS[arena.contentsAt(i)]);
+               buildClusters();
+          }
+
+     private HierarchicalPathfinder(Robot.GridCell[][] grid_, int length_, int width_, int x_offset_, int y_offset_, int cluster_size_)
+          {
+               if(cluster_size_ < 2)
+                    throw new IllegalArgumentException("cluster size must be at least 2");
+
+               grid = grid_;
+               length = length_;
+               width = width_;
+               x_offset = x_offset_;
+               y_offset = y_offset_;
+               cluster_size = cluster_size_;
+               clusters_x = (length + cluster_size - 1) / cluster_size;
+               clusters_y = (width + cluster_size - 1) / cluster_size;
+
+               obstacle = new boolean[length*width];
+
+               final int clusters = clusters_x*clusters_y;
+               right_border = new int[clusters][];
+               lower_border = new int[clusters][];
+               portals = new int[clusters][];
+               partners = new int[clusters][][];
+               intra = new int[clusters][];
+
+               local_dist = new int[cluster_size*cluster_size];
+               local_parent = new int[cluster_size*cluster_size];
+               local_queue = new int[cluster_size*cluster_size];
+          }
+
+     /**Computes every cluster from scratch once obstacle[] is filled in*/
+     private void buildClusters()
+          {
+               final int clusters = clusters_x*clusters_y;
+               for(int k=0; k<clusters; k++)
+               {
+                    computeRightBorder(k);
+                    computeLowerBorder(k);
+               }
+               for(int k=0; k<clusters; k++)
+                    computeCluster(k);
+          }
+
+     /**@return whether a cell's contents block movement for planning purposes*/
+     private static boolean isObstacle(Robot.GridObject contents)
+          {
+               switch(contents)
+               {
+               case WALL:
+               case FORT:
+               case BLOCKED:
+                    return true;
+               default:
+                    return false;
+               }
+          }
+
+     /**@return width and height of a cluster, in cells*/
+     public int getClusterSize() { return cluster_size; }
+
+     /**
+      * Tells the planner a cell's contents changed.  Cheap if the change
+      * doesn't affect terrain (a robot moving, say); otherwise the cell's
+      * cluster is recomputed, along with its neighbors if the cell lies on
+      * the cluster's edge.
+      * @param cell the cell of the planner's grid that changed
+      */
+     public void cellChanged(Robot.GridCell cell)
+          {
+               cellChanged(cell.x_coord - x_offset,cell.y_coord - y_offset,cell.contents);
+          }
+
+     /**
+      * Tells the planner the contents of cell (x,y) changed.
+      * @param x column of the cell, counted from the left of the grid
+      * @param y row of the cell, counted from the top of the grid
+      * @param contents new contents of the cell
+      */
+     void cellChanged(int x, int y, Robot.GridObject contents)
+          {
+               final boolean now_obstacle = isObstacle(contents);
+               if(obstacle[x*width + y]==now_obstacle)
+                    return;
+               obstacle[x*width + y] = now_obstacle;
+
+               final int cx = x/cluster_size;
+               final int cy = y/cluster_size;
+               final int k = cx*clusters_y + cy;
+               final boolean on_edge = x%cluster_size==0 || x%cluster_size==cluster_size-1 || x==length-1 ||
+                                       y%cluster_size==0 || y%cluster_size==cluster_size-1 || y==width-1;
+
+               if(on_edge)
+               {
+                    computeRightBorder(k);
+                    computeLowerBorder(k);
+                    if(cx > 0)
+                         computeRightBorder(k-clusters_y);
+                    if(cy > 0)
+                         computeLowerBorder(k-1);
+
+                    if(cx > 0)
+                         computeCluster(k-clusters_y);
+                    if(cx < clusters_x-1)
+                         computeCluster(k+clusters_y);
+                    if(cy > 0)
+                         computeCluster(k-1);
+                    if(cy < clusters_y-1)
+                         computeCluster(k+1);
+               }
+               computeCluster(k);
+               ids_dirty = true;
+          }
+
+     /*/**********************************************
+      * Cluster geometry
+      ***********************************************/
+
+     private int clusterOf(int cell)
+          {
+               return (cell/width/cluster_size)*clusters_y + (cell%width)/cluster_size;
+          }
+
+     private int clusterLeft(int k) { return (k/clusters_y)*cluster_size; }
+     private int clusterTop(int k) { return (k%clusters_y)*cluster_size; }
+     private int clusterLength(int k) { return Math.min(cluster_size,length-clusterLeft(k)); }
+     private int clusterWidth(int k) { return Math.min(cluster_size,width-clusterTop(k)); }
+
+     /*/**********************************************
+      * Building the abstract graph
+      ***********************************************/
+
+     /**
+      * Finds entrances along one straight border.  Cells are walked in
+      * step increments from first_inside/first_outside; count cells long.
+      */
+     private static int[] findEntrances(boolean[] obstacle, int first_inside, int first_outside, int step, int count)
+          {
+               int[] found = new int[0];
+               int run_start = -1;
+               for(int i=0; i<=count; i++)
+               {
+                    final boolean open = i<count && !obstacle[first_inside+i*step] && !obstacle[first_outside+i*step];
+                    if(open && run_start==-1)
+                         run_start = i;
+                    else if(!open && run_start!=-1)
+                    {
+                         //Run of open border cells is [run_start,i)
+                         final int run_length = i-run_start;
+                         if(run_length < LONG_ENTRANCE)
+                         {
+                              final int middle = run_start + run_length/2;
+                              found = Arrays.copyOf(found,found.length+2);
+                              found[found.length-2] = first_inside + middle*step;
+                              found[found.length-1] = first_outside + middle*step;
+                         }
+                         else
+                         {
+                              found = Arrays.copyOf(found,found.length+4);
+                              found[found.length-4] = first_inside + run_start*step;
+                              found[found.length-3] = first_outside + run_start*step;
+                              found[found.length-2] = first_inside + (i-1)*step;
+                              found[found.length-1] = first_outside + (i-1)*step;
+                         }
+                         run_start = -1;
+                    }
+               }
+               return found;
+          }
+
+     private void computeRightBorder(int k)
+          {
+               if(k/clusters_y==clusters_x-1)
+               {
+                    right_border[k] = new int[0];
+                    return;
+               }
+               final int x = clusterLeft(k) + clusterLength(k) - 1;
+               final int y = clusterTop(k);
+               right_border[k] = findEntrances(obstacle,x*width + y,(x+1)*width + y,1,clusterWidth(k));
+          }
+
+     private void computeLowerBorder(int k)
+          {
+               if(k%clusters_y==clusters_y-1)
+               {
+                    lower_border[k] = new int[0];
+                    return;
+               }
+               final int x = clusterLeft(k);
+               final int y = clusterTop(k) + clusterWidth(k) - 1;
+               lower_border[k] = findEntrances(obstacle,x*width + y,x*width + y+1,width,clusterLength(k));
+          }
+
+     /**Adds one entrance pair to the portal and partner lists being built*/
+     private static int addPortal(int[] cells, int[][] across, int count, int cell, int partner)
+          {
+               for(int i=0; i<count; i++)
+                    if(cells[i]==cell)
+                    {
+                         across[i] = Arrays.copyOf(across[i],across[i].length+1);
+                         across[i][across[i].length-1] = partner;
+                         return count;
+                    }
+               cells[count] = cell;
+               across[count] = new int[] { partner };
+               return count+1;
+          }
+
+     /**Collects a cluster's entrances from its four borders and measures the distances between them*/
+     private void computeCluster(int k)
+          {
+               final int cx = k/clusters_y;
+               final int cy = k%clusters_y;
+               final int[] left = cx > 0 ? right_border[k-clusters_y] : new int[0];
+               final int[] upper = cy > 0 ? lower_border[k-1] : new int[0];
+               final int[] right = right_border[k];
+               final int[] lower = lower_border[k];
+
+               final int most = (left.length + upper.length + right.length + lower.length)/2;
+               int[] cells = new int[most];
+               int[][] across = new int[most][];
+               int count = 0;
+               for(int i=0; i<right.length; i+=2)
+                    count = addPortal(cells,across,count,right[i],right[i+1]);
+               for(int i=0; i<lower.length; i+=2)
+                    count = addPortal(cells,across,count,lower[i],lower[i+1]);
+               for(int i=0; i<left.length; i+=2)
+                    count = addPortal(cells,across,count,left[i+1],left[i]);
+               for(int i=0; i<upper.length; i+=2)
+                    count = addPortal(cells,across,count,upper[i+1],upper[i]);
+
+               portals[k] = Arrays.copyOf(cells,count);
+               partners[k] = Arrays.copyOf(across,count);
+               intra[k] = new int[count*count];
+               for(int i=0; i<count; i++)
+               {
+                    localSearch(k,portals[k][i]);
+                    for(int j=0; j<count; j++)
+                         intra[k][i*count + j] = localDistance(k,portals[k][j]);
+               }
+          }
+
+     /*/**********************************************
+      * Searching inside one cluster
+      ***********************************************/
+
+     private int localIndex(int k, int cell)
+          {
+               return (cell/width - clusterLeft(k))*clusterWidth(k) + (cell%width - clusterTop(k));
+          }
+
+     private int globalIndex(int k, int local)
+          {
+               final int h = clusterWidth(k);
+               return (clusterLeft(k) + local/h)*width + clusterTop(k) + local%h;
+          }
+
+     /**
+      * Breadth-first search from source confined to cluster k.  The source
+      * is expanded even if it is an obstacle, since path endpoints may be
+      * anything.
+      */
+     private void localSearch(int k, int source)
+          {
+               final int x0 = clusterLeft(k);
+               final int y0 = clusterTop(k);
+               final int l = clusterLength(k);
+               final int h = clusterWidth(k);
+               Arrays.fill(local_dist,0,l*h,-1);
+
+               final int start = localIndex(k,source);
+               local_dist[start] = 0;
+               local_parent[start] = -1;
+               local_queue[0] = start;
+               int head = 0, tail = 1;
+               while(head!=tail)
+               {
+                    final int current = local_queue[head++];
+                    final int lx = current/h;
+                    final int ly = current%h;
+                    final int cell = (x0+lx)*width + y0+ly;
+                    for(int d=0; d<4; d++)
+                    {
+                         int neighbor, neighbor_cell;
+                         switch(d)
+                         {
+                         case 0:
+                              if(lx==0) continue;
+                              neighbor = current-h;
+                              neighbor_cell = cell-width;
+                              break;
+                         case 1:
+                              if(lx==l-1) continue;
+                              neighbor = current+h;
+                              neighbor_cell = cell+width;
+                              break;
+                         case 2:
+                              if(ly==0) continue;
+                              neighbor = current-1;
+                              neighbor_cell = cell-1;
+                              break;
+                         default:
+                              if(ly==h-1) continue;
+                              neighbor = current+1;
+                              neighbor_cell = cell+1;
+                              break;
+                         }
+                         if(local_dist[neighbor]!=-1 || obstacle[neighbor_cell])
+                              continue;
+                         local_dist[neighbor] = local_dist[current]+1;
+                         local_parent[neighbor] = current;
+                         local_queue[tail++] = neighbor;
+                    }
+               }
+          }
+
+     /**@return distance to cell found by the last localSearch() in cluster k*/
+     private int localDistance(int k, int cell)
+          {
+               return local_dist[localIndex(k,cell)];
+          }
+
+     /**Appends the route from the last localSearch()'s source to cell, excluding the source*/
+     private int appendLocalPath(int k, int cell, int[] route, int route_length)
+          {
+               final int steps = localDistance(k,cell);
+               int local = localIndex(k,cell);
+               for(int i=route_length+steps-1; i>=route_length; i--)
+               {
+                    route[i] = globalIndex(k,local);
+                    local = local_parent[local];
+               }
+               return route_length+steps;
+          }
+
+     /*/**********************************************
+      * Abstract search
+      ***********************************************/
+
+     /**Renumbers all entrances after clusters have changed*/
+     private void rebuildIds()
+          {
+               final int clusters = clusters_x*clusters_y;
+               portal_base = new int[clusters];
+               total_portals = 0;
+               for(int k=0; k<clusters; k++)
+               {
+                    portal_base[k] = total_portals;
+                    total_portals += portals[k].length;
+               }
+
+               id_cell = new int[total_portals];
+               id_cluster = new int[total_portals];
+               id_partners = new int[total_portals][];
+               for(int k=0; k<clusters; k++)
+                    for(int i=0; i<portals[k].length; i++)
+                    {
+                         final int id = portal_base[k]+i;
+                         id_cell[id] = portals[k][i];
+                         id_cluster[id] = k;
+                         id_partners[id] = new int[partners[k][i].length];
+                         for(int j=0; j<partners[k][i].length; j++)
+                         {
+                              final int other_cell = partners[k][i][j];
+                              final int other_k = clusterOf(other_cell);
+                              for(int m=0; m<portals[other_k].length; m++)
+                                   if(portals[other_k][m]==other_cell)
+                                        id_partners[id][j] = portal_base[other_k]+m;
+                         }
+                    }
+
+               if(g_score.length < total_portals+2)
+               {
+                    g_score = new int[total_portals+2];
+                    parent = new int[total_portals+2];
+                    seen = new int[total_portals+2];
+                    closed = new int[total_portals+2];
+                    stamp = 0;
+               }
+               ids_dirty = false;
+          }
+
+     private void heapPush(int f, int id)
+          {
+               if(heap_size==heap_f.length)
+               {
+                    heap_f = Arrays.copyOf(heap_f,heap_size*2);
+                    heap_id = Arrays.copyOf(heap_id,heap_size*2);
+               }
+               int i = heap_size++;
+               while(i > 0 && heap_f[(i-1)/2] > f)
+               {
+                    heap_f[i] = heap_f[(i-1)/2];
+                    heap_id[i] = heap_id[(i-1)/2];
+                    i = (i-1)/2;
+               }
+               heap_f[i] = f;
+               heap_id[i] = id;
+          }
+
+     private int heapPop()
+          {
+               final int top = heap_id[0];
+               final int f = heap_f[--heap_size];
+               final int id = heap_id[heap_size];
+               int i = 0;
+               while(2*i+1 < heap_size)
+               {
+                    int child = 2*i+1;
+                    if(child+1 < heap_size && heap_f[child+1] < heap_f[child])
+                         child++;
+                    if(heap_f[child] >= f)
+                         break;
+                    heap_f[i] = heap_f[child];
+                    heap_id[i] = heap_id[child];
+                    i = child;
+               }
+               heap_f[i] = f;
+               heap_id[i] = id;
+               return top;
+          }
+
+     private int manhattan(int a, int b)
+          {
+               return Math.abs(a/width - b/width) + Math.abs(a%width - b%width);
+          }
+
+     private boolean relax(int from, int to, int cost, int to_cell, int goal_cell)
+          {
+               if(closed[to]==stamp)
+                    return false;
+               final int g = g_score[from]+cost;
+               if(seen[to]==stamp && g_score[to]<=g)
+                    return false;
+               seen[to] = stamp;
+               g_score[to] = g;
+               parent[to] = from;
+               heapPush(g + manhattan(to_cell,goal_cell),to);
+               return true;
+          }
+
+     /**
+      * Plans a route from origin to target.
+      * @param origin starting cell
+      * @param target destination cell (may be anything, e.g. an enemy)
+      * @return the route, in the same form as findShortestPath() (origin
+      *         excluded, target last), or null if the terrain doesn't
+      *         connect the two cells
+      */
+     public Robot.GridCell[] findPath(Robot.GridCell origin, Robot.GridCell target)
+          {
+               final int[] route = findRoute(origin.x_coord - x_offset,origin.y_coord - y_offset,target.x_coord - x_offset,target.y_coord - y_offset);
+               if(route==null)
+                    return null;
+
+               Robot.GridCell[] path = new Robot.GridCell[route.length];
+               for(int i=0; i<route.length; i++)
+                    path[i] = grid[route[i]/width][route[i]%width];
+               return path;
+          }
+
+     /**
+      * Plans a route between two cells given by position relative to the
+      * top-left of the grid.
+      * @return the cells of the route as indices (x*width + y), origin
+      *         excluded and target last, or null if there is no route
+      */
+     int[] findRoute(int sx, int sy, int tx, int ty)
+          {
+               if(sx < 0 || sx >= length || sy < 0 || sy >= width || tx < 0 || tx >= length || ty < 0 || ty >= width)
+                    return null;
+               final int s = sx*width + sy;
+               final int t = tx*width + ty;
+               if(s==t)
+                    return new int[0];
+
+               if(ids_dirty)
+                    rebuildIds();
+               if(++stamp==0)
+               {
+                    Arrays.fill(seen,0);
+                    Arrays.fill(closed,0);
+                    stamp = 1;
+               }
+
+               final int START = total_portals;
+               final int GOAL = total_portals+1;
+               final int ks = clusterOf(s);
+
+               /*The route reaches the goal through an entry cell: the goal
+                 itself if it is open, otherwise whichever open neighbor the
+                 last step comes from.  Those neighbors may lie in other
+                 clusters, so measure from each entry inside its own
+                 cluster and keep the best entry per entrance.*/
+               int[] entries;
+               int extra;
+               if(!obstacle[t])
+               {
+                    entries = new int[] { t };
+                    extra = 0;
+               }
+               else
+               {
+                    entries = new int[4];
+                    int count = 0;
+                    if(tx > 0 && !obstacle[t-width]) entries[count++] = t-width;
+                    if(tx < length-1 && !obstacle[t+width]) entries[count++] = t+width;
+                    if(ty > 0 && !obstacle[t-1]) entries[count++] = t-1;
+                    if(ty < width-1 && !obstacle[t+1]) entries[count++] = t+1;
+                    entries = Arrays.copyOf(entries,count);
+                    extra = 1;
+               }
+
+               final int[] entry_cluster = new int[entries.length];
+               final int[][] to_goal = new int[entries.length][];
+               for(int e=0; e<entries.length; e++)
+               {
+                    final int k = entry_cluster[e] = clusterOf(entries[e]);
+                    localSearch(k,entries[e]);
+                    to_goal[e] = new int[portals[k].length];
+                    for(int i=0; i<portals[k].length; i++)
+                    {
+                         final int d = localDistance(k,portals[k][i]);
+                         to_goal[e][i] = d==-1 ? -1 : d+extra;
+                    }
+               }
+
+               //Distances from the start to its cluster's entrances and entries
+               localSearch(ks,s);
+               heap_size = 0;
+               seen[START] = stamp;
+               g_score[START] = 0;
+               parent[START] = -1;
+               heapPush(manhattan(s,t),START);
+               goal_entry = -1;
+
+               while(heap_size!=0)
+               {
+                    final int u = heapPop();
+                    if(closed[u]==stamp)
+                         continue;
+                    closed[u] = stamp;
+                    if(u==GOAL)
+                         return refine(s,t,START,GOAL);
+
+                    if(u==START)
+                    {
+                         for(int i=0; i<portals[ks].length; i++)
+                         {
+                              final int d = localDistance(ks,portals[ks][i]);
+                              if(d!=-1)
+                                   relax(START,portal_base[ks]+i,d,portals[ks][i],t);
+                         }
+                         for(int e=0; e<entries.length; e++)
+                              if(entry_cluster[e]==ks && localDistance(ks,entries[e])!=-1 &&
+                                 relax(START,GOAL,localDistance(ks,entries[e])+extra,t,t))
+                                   goal_entry = entries[e];
+                         continue;
+                    }
+
+                    final int k = id_cluster[u];
+                    final int i = u - portal_base[k];
+                    final int n = portals[k].length;
+                    for(int j=0; j<n; j++)
+                         if(j!=i && intra[k][i*n + j]!=-1)
+                              relax(u,portal_base[k]+j,intra[k][i*n + j],portals[k][j],t);
+                    for(int other : id_partners[u])
+                         relax(u,other,1,id_cell[other],t);
+                    for(int e=0; e<entries.length; e++)
+                         if(entry_cluster[e]==k && to_goal[e][i]!=-1 && relax(u,GOAL,to_goal[e][i],t,t))
+                              goal_entry = entries[e];
+               }
+
+               return null;
+          }
+
+     /**Turns the abstract route found by findRoute() into cells*/
+     private int[] refine(int s, int t, int START, int GOAL)
+          {
+               //Abstract route, with the goal replaced by the cell we enter it from
+               int hops = 0;
+               for(int u=GOAL; u!=-1; u=parent[u])
+                    hops++;
+               int[] waypoints = new int[hops];
+               for(int u=GOAL, i=hops-1; u!=-1; u=parent[u], i--)
+                    waypoints[i] = u==START ? s : (u==GOAL ? goal_entry : id_cell[u]);
+
+               int[] route = new int[g_score[GOAL]];
+               int route_length = 0;
+               for(int i=1; i<hops; i++)
+               {
+                    final int from = waypoints[i-1];
+                    final int to = waypoints[i];
+                    final int k = clusterOf(from);
+                    if(k!=clusterOf(to))
+                         route[route_length++] = to; //crossing an entrance
+                    else
+                    {
+                         localSearch(k,from);
+                         route_length = appendLocalPath(k,to,route,route_length);
+                    }
+               }
+               if(goal_entry!=t)
+                    route[route_length++] = t;
+
+               return route_length==route.length ? route : Arrays.copyOf(route,route_length);
+          }
+}
@@ -0,0 +1,175 @@
+/**
+ * MappedArenaStorage: arena cells kept in a file mapped into memory.<br><br>
+ * None of the cell data is on the heap, so an arena of tens of millions of
+ * cells costs the garbage collector nothing, and the operating system pages
+ * in only the parts of the file the simulation actually touches.<br><br>
+ * A new file is mapped read-write until saveMap(), which writes the
+ * freshly generated map out and maps the file again copy-on-write.  An
+ * existing file is mapped copy-on-write from the start.  Either way the
+ * walls a match knocks down stay in that simulation's memory and never
+ * reach the file, so a map generated once can be reused, even by several
+ * simulations at once, without being built again.<br><br>
+ * The file starts with a header (magic number, format, length, width),
+ * followed by one region per field, each holding that field for every cell
+ * in index order, little-endian.
+ */
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+final class MappedArenaStorage implements ArenaStorage
+{
+     //"ROBO", and the layout described above
+     private static final int MAGIC = 0x524F424F;
+     private static final int FORMAT = 2;
+     private static final int HEADER_SIZE = 64;
+
+     private final int cells;
+
+     private final File file;
+
+     //Whether the file was created (rather than opened) by us
+     private final boolean created;
+
+     //Where each region starts in the file
+     private final long contents_at, orientation_at, health_at, capsule_at, occupant_at;
+
+     //Whether changes still go to the file
+     private boolean writing;
+
+     private MappedByteBuffer contents, orientation, health, capsule_power, occupant;
+
+     /**
+      * Maps a map file, creating it if it doesn't exist or is empty.
+      * @param file file holding the map
+      * @param length number of columns (x) of the arena
+      * @param width number of rows (y) of the arena
+      * @throws IOException if the file can't be mapped, or holds a map of
+      *                     some other size
+      */
+     MappedArenaStorage(File file_, int length, int width) throws IOException
+          {
+               final long cells_ = (long)length*width;
+               //Each region is mapped separately, and a mapping is limited to 2GB
+               if(cells_ > Integer.MAX_VALUE/4)
+                    throw new IOException("arena too large to map: " + length + "x" + width);
+               cells = (int)cells_;
+               file = file_;
+
+               RandomAccessFile raf = new RandomAccessFile(file,"rw");
+               try
+               {
+                    final FileChannel channel = raf.getChannel();
+                    created = channel.size()==0;
+                    long offset = HEADER_SIZE;
+                    contents_at = offset; offset = align(offset + cells);
+                    orientation_at = offset; offset = align(offset + cells);
+                    health_at = offset; offset = align(offset + 2L*cells);
+                    capsule_at = offset; offset = align(offset + 4L*cells);
+                    occupant_at = offset; offset = align(offset + 4L*cells);
+
+                    final MappedByteBuffer header = channel.map(created ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,0,HEADER_SIZE);
+                    header.order(ByteOrder.LITTLE_ENDIAN);
+                    if(created)
+                    {
+                         //Grows the file; the new space reads as zeros, which is an empty arena
+                         raf.setLength(offset);
+                         header.putInt(0,MAGIC).putInt(4,FORMAT).putInt(8,length).putInt(12,width);
+                    }
+                    else
+                    {
+                         if(header.getInt(0)!=MAGIC || header.getInt(4)!=FORMAT)
+                              throw new IOException(file + " is not a map file");
+                         if(header.getInt(8)!=length || header.getInt(12)!=width)
+                              throw new IOException(file + " holds a " + header.getInt(8) + "x" + header.getInt(12) + " map, not " + length + "x" + width);
+                         if(channel.size() < offset)
+                              throw new IOException(file + " is truncated");
+                    }
+
+                    writing = created;
+                    mapRegions(channel,writing ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.PRIVATE);
+               }
+               finally
+               {
+                    //Mappings stay valid after the file is closed
+                    raf.close();
+               }
+          }
+
+     private static long align(long offset) { return (offset + 7) & ~7L; }
+
+     private void mapRegions(FileChannel channel, FileChannel.MapMode mode) throws IOException
+          {
+               contents = map(channel,mode,contents_at,cells);
+               orientation = map(channel,mode,orientation_at,cells);
+               health = map(channel,mode,health_at,2L*cells);
+               capsule_power = map(channel,mode,capsule_at,4L*cells);
+               occupant = map(channel,mode,occupant_at,4L*cells);
+          }
+
+     private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long at, long size) throws IOException
+          {
+               final MappedByteBuffer buffer = channel.map(mode,at,size);
+               buffer.order(ByteOrder.LITTLE_ENDIAN);
+               return buffer;
+          }
+
+     /**@return whether the file was new, so the arena in it is still empty*/
+     boolean created() { return created; }
+
+     /**
+      * If we created the file, waits until the map is on the disk and maps
+      * the file again copy-on-write, so nothing done from now on reaches
+      * it.  Does nothing the second time, or for a file that existed.
+      * @throws IOError if the file can't be mapped again, which leaves
+      *                 nowhere to keep the arena
+      */
+     public void saveMap()
+          {
+               if(!writing)
+                    return;
+               contents.force();
+               orientation.force();
+               health.force();
+               capsule_power.force();
+               occupant.force();
+
+               try
+               {
+                    RandomAccessFile raf = new RandomAccessFile(file,"rw");
+                    try
+                    {
+                         mapRegions(raf.getChannel(),FileChannel.MapMode.PRIVATE);
+                    }
+                    finally
+                    {
+                         raf.close();
+                    }
+               }
+               catch(IOException e)
+               {
+                    throw new IOError(e);
+               }
+               writing = false;
+          }
+
+     public int cells() { return cells; }
+
+     public byte getContents(int index) { return contents.get(index); }
+     public void setContents(int index, byte value) { contents.put(index,value); }
+
+     public byte getOrientation(int index) { return orientation.get(index); }
+     public void setOrientation(int index, byte value) { orientation.put(index,value); }
+
+     public short getHealth(int index) { return health.getShort(index << 1); }
+     public void setHealth(int index, short value) { health.putShort(index << 1,value); }
+
+     public int getCapsulePower(int index) { return capsule_power.getInt(index << 2); }
+     public void setCapsulePower(int index, int value) { capsule_power.putInt(index << 2,value); }
+
+     public int getOccupant(int index) { return occupant.getInt(index << 2); }
+     public void setOccupant(int index, int value) { occupant.putInt(index << 2,value); }
+}
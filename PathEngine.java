@@ -0,0 +1,913 @@
+/**
+ * PathEngine: grid search backend used by Robot.RobotUtility.<br><br>
+ * Cells are numbered (x*height + y) relative to the top-left cell of the
+ * grid being searched, and all bookkeeping lives in primitive int[]
+ * arrays indexed by that number.  The arrays are scratch space owned by
+ * the calling thread and reused from one search to the next, so a search
+ * allocates nothing except the path it finally returns.
+ */
+import java.util.Arrays;
+class PathEngine
+{
+     /**One engine per thread so the simulator and robots never share scratch space*/
+     private static final ThreadLocal<PathEngine> engines = new ThreadLocal<PathEngine>() {
+               protected PathEngine initialValue() { return new PathEngine(); }
+          };
+
+     /**@return this thread's engine*/
+     static PathEngine get() { return engines.get(); }
+
+     /*Scratch buffers.  A cell's dist[] and parent[] entries are only
+       meaningful if seen[] for that cell equals the current stamp, which
+       saves clearing the arrays between searches.*/
+     private int[] seen = new int[0];
+     private int[] dist = new int[0];
+     private int[] parent = new int[0];
+     private int[] queue = new int[0];
+     private int[] stack = new int[0];
+     private int[] closed = new int[0];
+     private int[] marked = new int[0];
+     private int[] heap_f = new int[16], heap_id = new int[16];
+     private int heap_size;
+     private int stamp = 0;
+
+     //Cells (or jump points) expanded by the last search, for benchmarking
+     private int expansions;
+
+     /**@return number of nodes the last search on this thread expanded*/
+     int getExpansions() { return expansions; }
+
+     //Geometry of the grid currently being searched
+     private Robot.GridCell[][] grid;
+     private int length, height, x_offset, y_offset;
+
+     //Occupied cells of the arena being searched, if bound to an ArenaGrid instead of a grid
+     private Bitboard arena;
+
+     private PathEngine() {}
+
+     /**Binds the engine to a grid and invalidates the previous search*/
+     private void prepare(Robot.GridCell[][] grid_)
+          {
+               grid = grid_;
+               arena = null;
+               length = grid.length;
+               height = grid[0].length;
+               x_offset = grid[0][0].x_coord;
+               y_offset = grid[0][0].y_coord;
+               prepareScratch();
+          }
+
+     /**Binds the engine to the simulator's arena and invalidates the previous search*/
+     private void prepare(ArenaGrid arena_)
+          {
+               grid = null;
+               arena = arena_.blocked;
+               length = arena_.length;
+               height = arena_.width;
+               x_offset = y_offset = 0;
+               prepareScratch();
+          }
+
+     private void prepareScratch()
+          {
+               final int cells = length*height;
+               if(seen.length < cells)
+               {
+                    seen = new int[cells];
+                    dist = new int[cells];
+                    parent = new int[cells];
+                    queue = new int[cells];
+                    stack = new int[cells];
+                    closed = new int[cells];
+                    marked = new int[0];
+                    stamp = 0;
+               }
+
+               //Stamp wrapped around: old marks could look current again
+               if(++stamp==0)
+               {
+                    Arrays.fill(seen,0);
+                    Arrays.fill(closed,0);
+                    Arrays.fill(marked,0);
+                    stamp = 1;
+               }
+          }
+
+     /**@return index of cell in the bound grid*/
+     private int indexOf(Robot.GridCell cell)
+          {
+               return (cell.x_coord - x_offset)*height + (cell.y_coord - y_offset);
+          }
+
+     /**@return grid cell at index*/
+     private Robot.GridCell cellAt(int index)
+          {
+               return grid[index/height][index%height];
+          }
+
+     /**@return whether the cell at index may be walked through*/
+     private boolean isEmpty(int index)
+          {
+               return arena!=null ? !arena.get(index) : cellAt(index).contents==Robot.GridObject.EMPTY;
+          }
+
+     /**
+      * Rebuilds the path ending at index by walking parent[] back to the
+      * origin.  Like the original Dijkstra implementation, the origin is
+      * not part of the path and the target is its last element.
+      */
+     private Robot.GridCell[] buildPath(int index)
+          {
+               Robot.GridCell[] path = new Robot.GridCell[dist[index]];
+               for(int i=path.length-1; i>=0; i--)
+               {
+                    path[i] = cellAt(index);
+                    index = parent[index];
+               }
+               return path;
+          }
+
+     /**Marks neighbor as discovered from current and appends it to the queue*/
+     private int discover(int neighbor, int current, int tail)
+          {
+               seen[neighbor] = stamp;
+               dist[neighbor] = dist[current]+1;
+               parent[neighbor] = current;
+               queue[tail] = neighbor;
+               return tail+1;
+          }
+
+     /**
+      * Unit-cost breadth-first search.<br>
+      * Neighbors are visited in the order (-1,0),(1,0),(0,-1),(0,1) and the
+      * queue is FIFO, which is the same order the old TreeMap-based search
+      * settled cells in, so the same path comes out.
+      * @param origin starting cell
+      * @param isTarget predicate identifying destination cells
+      * @param isPassable predicate identifying cells we may walk through
+      * @param grid grid to analyze
+      * @return path to the nearest target, or null if there is none
+      */
+     Robot.GridCell[] breadthFirst(Robot.GridCell origin, Robot.RobotUtility.FSPPredicate isTarget, Robot.RobotUtility.FSPPredicate isPassable, Robot.GridCell[][] grid_)
+          {
+               prepare(grid_);
+               expansions = 0;
+               if(isTarget.validCell(origin))
+                    return new Robot.GridCell[0];
+
+               final int start = indexOf(origin);
+               seen[start] = stamp;
+               dist[start] = 0;
+               parent[start] = -1;
+               queue[0] = start;
+
+               int head = 0, tail = 1;
+               while(head!=tail)
+               {
+                    final int current = queue[head++];
+                    expansions++;
+                    final int gridX_value = current/height;
+                    final int gridY_value = current%height;
+
+                    for(int k=0; k<4; k++)
+                    {
+                         int neighbor;
+                         switch(k)
+                         {
+                         case 0:
+                              if(gridX_value==0) continue;
+                              neighbor = current-height;
+                              break;
+                         case 1:
+                              if(gridX_value==length-1) continue;
+                              neighbor = current+height;
+                              break;
+                         case 2:
+                              if(gridY_value==0) continue;
+                              neighbor = current-1;
+                              break;
+                         default:
+                              if(gridY_value==height-1) continue;
+                              neighbor = current+1;
+                              break;
+                         }
+
+                         if(seen[neighbor]==stamp)
+                              continue;
+
+                         Robot.GridCell x = cellAt(neighbor);
+                         if(isTarget.validCell(x))
+                         {
+                              discover(neighbor,current,tail);
+                              return buildPath(neighbor);
+                         }
+                         if(isPassable.validCell(x))
+                              tail = discover(neighbor,current,tail);
+                    }
+               }
+
+               return null;
+          }
+
+     //How breadthFirstSearch() recognizes a target
+     private static final int TARGET_CELL = 0;
+     private static final int TARGET_KIND = 1;
+     private static final int TARGET_MARKED = 2;
+
+     /**
+      * Single-target breadth-first search.  Same result as breadthFirst()
+      * with an identity target predicate and EMPTY-only passability, but
+      * without the virtual predicate calls in the inner loop.
+      * @param origin starting cell
+      * @param target destination cell (compared by identity, as before)
+      * @param grid grid to analyze
+      * @return shortest path, or null if there is none
+      */
+     Robot.GridCell[] breadthFirst(Robot.GridCell origin, Robot.GridCell target, Robot.GridCell[][] grid_)
+          {
+               prepare(grid_);
+               if(origin==target)
+                    return new Robot.GridCell[0];
+               final int goal = breadthFirstSearch(indexOf(origin),TARGET_CELL,null,target);
+               return goal==-1 ? null : buildPath(goal);
+          }
+
+     /**
+      * Nearest-of-kind breadth-first search: the target is any cell whose
+      * contents equal kind, compared directly in the loop.
+      * @param origin starting cell
+      * @param kind contents of the cells we are looking for
+      * @param grid grid to analyze
+      * @return path to the nearest such cell, or null if there is none
+      */
+     Robot.GridCell[] breadthFirst(Robot.GridCell origin, Robot.GridObject kind, Robot.GridCell[][] grid_)
+          {
+               prepare(grid_);
+               if(origin.contents==kind)
+                    return new Robot.GridCell[0];
+               final int goal = breadthFirstSearch(indexOf(origin),TARGET_KIND,kind,null);
+               return goal==-1 ? null : buildPath(goal);
+          }
+
+     /**
+      * Nearest-of-set breadth-first search.  Targets are flagged in a
+      * stamped scratch array first, so each cell test is one array read.
+      * Cells that are not part of grid (by identity) are ignored, as they
+      * could never be matched by the single-target search either.
+      * @param origin starting cell
+      * @param targets candidate destination cells
+      * @param grid grid to analyze
+      * @return path to the nearest of the targets, or null if there is none
+      */
+     Robot.GridCell[] breadthFirst(Robot.GridCell origin, Robot.GridCell[] targets, Robot.GridCell[][] grid_)
+          {
+               prepare(grid_);
+               if(marked.length < seen.length)
+                    marked = new int[seen.length];
+
+               for(Robot.GridCell target : targets)
+               {
+                    if(target==null)
+                         continue;
+                    if(target==origin)
+                         return new Robot.GridCell[0];
+                    final int gridX_value = target.x_coord - x_offset;
+                    final int gridY_value = target.y_coord - y_offset;
+                    if(gridX_value >= 0 && gridX_value < length && gridY_value >= 0 && gridY_value < height &&
+                       grid[gridX_value][gridY_value]==target)
+                         marked[gridX_value*height + gridY_value] = stamp;
+               }
+
+               final int goal = breadthFirstSearch(indexOf(origin),TARGET_MARKED,null,null);
+               return goal==-1 ? null : buildPath(goal);
+          }
+
+     /**
+      * Breadth-first core for the specialized searches: passable cells are
+      * EMPTY ones and targets are recognized according to mode.  The mode switch is on a constant int, so the JIT
+      * sees one predictable branch instead of a virtual call per cell.
+      * @return index of the target found, with dist[]/parent[] filled in,
+      *         or -1
+      */
+     private int breadthFirstSearch(int start, int mode, Robot.GridObject kind, Robot.GridCell target)
+          {
+               expansions = 0;
+               seen[start] = stamp;
+               dist[start] = 0;
+               parent[start] = -1;
+               queue[0] = start;
+
+               int head = 0, tail = 1;
+               while(head!=tail)
+               {
+                    final int current = queue[head++];
+                    expansions++;
+                    final int gridX_value = current/height;
+                    final int gridY_value = current%height;
+
+                    for(int k=0; k<4; k++)
+                    {
+                         int neighbor;
+                         switch(k)
+                         {
+                         case 0:
+                              if(gridX_value==0) continue;
+                              neighbor = current-height;
+                              break;
+                         case 1:
+                              if(gridX_value==length-1) continue;
+                              neighbor = current+height;
+                              break;
+                         case 2:
+                              if(gridY_value==0) continue;
+                              neighbor = current-1;
+                              break;
+                         default:
+                              if(gridY_value==height-1) continue;
+                              neighbor = current+1;
+                              break;
+                         }
+
+                         if(seen[neighbor]==stamp)
+                              continue;
+
+                         boolean isTarget;
+                         switch(mode)
+                         {
+                         case TARGET_CELL:
+                              isTarget = cellAt(neighbor)==target;
+                              break;
+                         case TARGET_KIND:
+                              isTarget = cellAt(neighbor).contents==kind;
+                              break;
+                         default:
+                              isTarget = marked[neighbor]==stamp;
+                              break;
+                         }
+
+                         if(isTarget)
+                         {
+                              discover(neighbor,current,tail);
+                              return neighbor;
+                         }
+                         if(isEmpty(neighbor))
+                              tail = discover(neighbor,current,tail);
+                    }
+               }
+
+               return -1;
+          }
+
+     /**@return Manhattan distance between two cell indices*/
+     private int manhattan(int a, int b)
+          {
+               return Math.abs(a/height - b/height) + Math.abs(a%height - b%height);
+          }
+
+     /**
+      * Single-target A* search using the 4-connected Manhattan heuristic.<br>
+      * The path has the same length as the breadth-first path but may take
+      * a different route of that length.
+      * @param origin starting cell
+      * @param target destination cell (compared by identity)
+      * @param grid grid to analyze
+      * @return shortest path, or null if there is none
+      */
+     Robot.GridCell[] aStar(Robot.GridCell origin, Robot.GridCell target, Robot.GridCell[][] grid_)
+          {
+               final int goal = aStarSearch(origin,target,grid_,Integer.MAX_VALUE);
+               return goal==-1 ? null : buildPath(goal);
+          }
+
+     /**
+      * Depth-bounded reachability query: no path is built.
+      * @param origin starting cell
+      * @param target destination cell (compared by identity)
+      * @param grid grid to analyze
+      * @param max_depth longest path length of interest
+      * @return length of the shortest path, or -1 if there is no path of
+      *         at most max_depth steps
+      */
+     int boundedDistance(Robot.GridCell origin, Robot.GridCell target, Robot.GridCell[][] grid_, int max_depth)
+          {
+               final int goal = aStarSearch(origin,target,grid_,max_depth);
+               return goal==-1 ? -1 : dist[goal];
+          }
+
+     /**
+      * Depth-bounded reachability query between two cells of the arena.
+      * @param arena_ arena to search
+      * @param start index of the starting cell
+      * @param goal index of the destination cell
+      * @param max_depth longest path length of interest
+      * @return length of the shortest path, or -1 if there is no path of
+      *         at most max_depth steps
+      */
+     int boundedDistance(ArenaGrid arena_, int start, int goal, int max_depth)
+          {
+               prepare(arena_);
+               return aStarSearch(start,goal,max_depth)==-1 ? -1 : dist[goal];
+          }
+
+     /**
+      * A* core.<br>
+      * Moves cost 1 and the heuristic is consistent, so f only ever takes
+      * the current value or the current value plus 2.  The open list is
+      * therefore just two int stacks: one for the f level being expanded
+      * and one for the next.  Popping the current level LIFO expands the
+      * most recently generated (deepest) node first, which breaks ties
+      * toward the goal.<br>
+      * Since f never overestimates, a cell whose f exceeds max_depth cannot
+      * lie on a path of at most max_depth steps and is never queued; a
+      * bounded query therefore touches O(max_depth^2) cells at most.
+      * @return index of the goal with dist[]/parent[] filled in, or -1
+      */
+     private int aStarSearch(Robot.GridCell origin, Robot.GridCell target, Robot.GridCell[][] grid_, int max_depth)
+          {
+               prepare(grid_);
+               expansions = 0;
+
+               //Target must actually be a cell of this grid
+               final int goal = indexOf(target);
+               if(target.x_coord-x_offset < 0 || target.x_coord-x_offset >= length ||
+                  target.y_coord-y_offset < 0 || target.y_coord-y_offset >= height ||
+                  cellAt(goal)!=target)
+                    return -1;
+
+               return aStarSearch(indexOf(origin),goal,max_depth);
+          }
+
+     private int aStarSearch(int start, int goal, int max_depth)
+          {
+               expansions = 0;
+               seen[start] = stamp;
+               dist[start] = 0;
+               parent[start] = -1;
+               if(start==goal)
+                    return start;
+
+               int level = manhattan(start,goal);
+               if(level > max_depth)
+                    return -1;
+
+               int[] current_level = queue, next_level = stack;
+               int current_size = 0, next_size = 0;
+               current_level[current_size++] = start;
+
+               while(current_size!=0 || next_size!=0)
+               {
+                    //Current f level exhausted: move on to the next one
+                    if(current_size==0)
+                    {
+                         int[] swap = current_level;
+                         current_level = next_level;
+                         next_level = swap;
+                         current_size = next_size;
+                         next_size = 0;
+                         level += 2;
+                    }
+
+                    final int current = current_level[--current_size];
+                    if(closed[current]==stamp)
+                         continue;
+                    closed[current] = stamp;
+                    expansions++;
+
+                    final int gridX_value = current/height;
+                    final int gridY_value = current%height;
+                    final int g = dist[current]+1;
+
+                    for(int k=0; k<4; k++)
+                    {
+                         int neighbor;
+                         switch(k)
+                         {
+                         case 0:
+                              if(gridX_value==0) continue;
+                              neighbor = current-height;
+                              break;
+                         case 1:
+                              if(gridX_value==length-1) continue;
+                              neighbor = current+height;
+                              break;
+                         case 2:
+                              if(gridY_value==0) continue;
+                              neighbor = current-1;
+                              break;
+                         default:
+                              if(gridY_value==height-1) continue;
+                              neighbor = current+1;
+                              break;
+                         }
+
+                         if(closed[neighbor]==stamp || (seen[neighbor]==stamp && dist[neighbor]<=g))
+                              continue;
+
+                         /*Generating the goal is enough: its f is g, which
+                           equals the current level, so nothing cheaper can
+                           still be open.*/
+                         if(neighbor==goal)
+                         {
+                              seen[neighbor] = stamp;
+                              dist[neighbor] = g;
+                              parent[neighbor] = current;
+                              return neighbor;
+                         }
+
+                         if(!isEmpty(neighbor))
+                              continue;
+
+                         final int f = g + manhattan(neighbor,goal);
+                         if(f > max_depth)
+                              continue;
+
+                         seen[neighbor] = stamp;
+                         dist[neighbor] = g;
+                         parent[neighbor] = current;
+                         if(f==level)
+                              current_level[current_size++] = neighbor;
+                         else
+                              next_level[next_size++] = neighbor;
+                    }
+               }
+
+               return -1;
+          }
+
+     /**
+      * Multi-source breadth-first search producing a DistanceField.<br>
+      * Sources are given either as explicit cells of grid (matched by
+      * identity), or by scanning the grid with kind (direct comparison) or
+      * isSource.  The distance array is the result, so it is freshly
+      * allocated rather than taken from scratch space.
+      * @param grid grid to analyze
+      * @param sources explicit source cells, or null
+      * @param kind contents of the source cells, or null
+      * @param isSource predicate accepting source cells, used if both
+      *                 sources and kind are null
+      * @return the finished field
+      */
+     DistanceField distanceField(Robot.GridCell[][] grid_, Robot.GridCell[] sources, Robot.GridObject kind, Robot.RobotUtility.FSPPredicate isSource)
+          {
+               prepare(grid_);
+               final int[] distances = new int[length*height];
+               Arrays.fill(distances,-1);
+
+               //Seed the queue with every source
+               int tail = 0;
+               if(sources!=null)
+               {
+                    for(Robot.GridCell source : sources)
+                    {
+                         if(source==null)
+                              continue;
+                         final int gridX_value = source.x_coord - x_offset;
+                         final int gridY_value = source.y_coord - y_offset;
+                         if(gridX_value >= 0 && gridX_value < length && gridY_value >= 0 && gridY_value < height &&
+                            grid[gridX_value][gridY_value]==source && distances[gridX_value*height + gridY_value]==-1)
+                         {
+                              distances[gridX_value*height + gridY_value] = 0;
+                              queue[tail++] = gridX_value*height + gridY_value;
+                         }
+                    }
+               }
+               else
+                    for(int i=0; i<length; i++)
+                         for(int j=0; j<height; j++)
+                              if(kind!=null ? grid[i][j].contents==kind : isSource.validCell(grid[i][j]))
+                              {
+                                   distances[i*height + j] = 0;
+                                   queue[tail++] = i*height + j;
+                              }
+
+               return spreadField(distances,tail);
+          }
+
+     /**
+      * Multi-source breadth-first search over the arena.
+      * @param arena_ arena to analyze
+      * @param sources indices of the source cells
+      * @param count number of entries of sources in use
+      * @return the finished field
+      */
+     DistanceField distanceField(ArenaGrid arena_, int[] sources, int count)
+          {
+               prepare(arena_);
+               final int[] distances = new int[length*height];
+               Arrays.fill(distances,-1);
+
+               int tail = 0;
+               for(int i=0; i<count; i++)
+                    if(distances[sources[i]]==-1)
+                    {
+                         distances[sources[i]] = 0;
+                         queue[tail++] = sources[i];
+                    }
+
+               return spreadField(distances,tail);
+          }
+
+     /**Breadth-first fill of distances from the tail sources already queued*/
+     private DistanceField spreadField(int[] distances, int tail)
+          {
+               expansions = 0;
+               int head = 0;
+               while(head!=tail)
+               {
+                    final int current = queue[head++];
+                    expansions++;
+                    final int gridX_value = current/height;
+                    final int gridY_value = current%height;
+
+                    for(int k=0; k<4; k++)
+                    {
+                         int neighbor;
+                         switch(k)
+                         {
+                         case 0:
+                              if(gridX_value==0) continue;
+                              neighbor = current-height;
+                              break;
+                         case 1:
+                              if(gridX_value==length-1) continue;
+                              neighbor = current+height;
+                              break;
+                         case 2:
+                              if(gridY_value==0) continue;
+                              neighbor = current-1;
+                              break;
+                         default:
+                              if(gridY_value==height-1) continue;
+                              neighbor = current+1;
+                              break;
+                         }
+
+                         if(distances[neighbor]!=-1 || !isEmpty(neighbor))
+                              continue;
+                         distances[neighbor] = distances[current]+1;
+                         queue[tail++] = neighbor;
+                    }
+               }
+
+               return new DistanceField(x_offset,y_offset,length,height,distances);
+          }
+
+     /*/**********************************************
+      * Jump Point Search
+      ***********************************************/
+
+     //Goal of the jump point search in progress
+     private int jump_goal;
+
+     /*Occupied cells of the grid being searched, row by row (bit y*length + x),
+       so x scans can test 64 cells at a time.  The goal counts as free: a
+       path that reaches it ends there.*/
+     private Bitboard jump_rows = new Bitboard(0);
+
+     private void fillJumpRows(int goal)
+          {
+               final int cells = length*height;
+               if(jump_rows.capacity() < cells)
+                    jump_rows = new Bitboard(cells);
+               else
+                    jump_rows.clear(cells);
+               for(int x=0; x<length; x++)
+                    for(int y=0; y<height; y++)
+                         if(grid[x][y].contents!=Robot.GridObject.EMPTY)
+                              jump_rows.set(y*length + x,true);
+               jump_rows.set((goal%height)*length + goal/height,false);
+          }
+
+     /**
+      * Scans along x from index in steps of step (+height or -height).
+      * Rather than stepping cell by cell, finds the obstacle ending the run
+      * and the first "forced" cell in each neighboring row with a few word
+      * scans of jump_rows.
+      * @return the first cell where the path may have to turn (the goal, or
+      *         a cell with a "forced" neighbor along y), or -1 if the scan
+      *         runs into an obstacle or the edge of the grid first
+      */
+     private int jumpAlongX(int index, int step)
+          {
+               final int gridY_value = index%height;
+               final int gridX_value = index/height;
+               final int row = gridY_value*length;
+               final boolean goal_row = jump_goal%height==gridY_value;
+               final int goal_x = jump_goal/height;
+
+               /*Turning onto y at x is only ever necessary if the cell we'd
+                 have turned into one step earlier is blocked, so in each
+                 neighboring row look for the first free cell after a
+                 blocked one, before the run ends*/
+               int found;
+               if(step > 0)
+               {
+                    final int obstacle = jump_rows.nextSet(row+gridX_value+1,row+length);
+                    final int end = obstacle==-1 ? length : obstacle-row;
+                    found = goal_row && goal_x > gridX_value && goal_x < end ? goal_x : end;
+                    for(int side=-1; side<=1; side+=2)
+                    {
+                         if(gridY_value+side < 0 || gridY_value+side >= height)
+                              continue;
+                         final int next_row = row + side*length;
+                         final int blocked = jump_rows.nextSet(next_row+gridX_value,next_row+found-1);
+                         if(blocked==-1)
+                              continue;
+                         final int free = jump_rows.nextClear(blocked+1,next_row+found);
+                         if(free!=-1)
+                              found = free-next_row;
+                    }
+                    if(found==end)
+                         return -1;
+               }
+               else
+               {
+                    final int obstacle = jump_rows.previousSet(row,row+gridX_value);
+                    final int end = obstacle==-1 ? -1 : obstacle-row;
+                    found = goal_row && goal_x < gridX_value && goal_x > end ? goal_x : end;
+                    for(int side=-1; side<=1; side+=2)
+                    {
+                         if(gridY_value+side < 0 || gridY_value+side >= height)
+                              continue;
+                         final int next_row = row + side*length;
+                         final int blocked = jump_rows.previousSet(next_row+found+2,next_row+gridX_value+1);
+                         if(blocked==-1)
+                              continue;
+                         final int free = jump_rows.previousClear(next_row+found+1,blocked);
+                         if(free!=-1)
+                              found = free-next_row;
+                    }
+                    if(found==end)
+                         return -1;
+               }
+               return found*height + gridY_value;
+          }
+
+     /**
+      * Scans along y from index in steps of step (+1 or -1).  A shortest
+      * path can leave a y run anywhere, so every cell is probed along x.
+      * @return the first cell that is the goal or from which an x scan
+      *         finds something, or -1 if the scan hits an obstacle or edge
+      */
+     private int jumpAlongY(int index, int step)
+          {
+               int gridY_value = index%height;
+               while(true)
+               {
+                    gridY_value+=step;
+                    if(gridY_value < 0 || gridY_value >= height)
+                         return -1;
+                    index+=step;
+                    if(index==jump_goal)
+                         return index;
+                    if(jump_rows.get(gridY_value*length + index/height))
+                         return -1;
+                    if(jumpAlongX(index,height)!=-1 || jumpAlongX(index,-height)!=-1)
+                         return index;
+               }
+          }
+
+     private void heapPush(int f, int id)
+          {
+               if(heap_size==heap_f.length)
+               {
+                    heap_f = Arrays.copyOf(heap_f,heap_size*2);
+                    heap_id = Arrays.copyOf(heap_id,heap_size*2);
+               }
+               int i = heap_size++;
+               while(i > 0 && heap_f[(i-1)/2] > f)
+               {
+                    heap_f[i] = heap_f[(i-1)/2];
+                    heap_id[i] = heap_id[(i-1)/2];
+                    i = (i-1)/2;
+               }
+               heap_f[i] = f;
+               heap_id[i] = id;
+          }
+
+     private int heapPop()
+          {
+               final int top = heap_id[0];
+               final int f = heap_f[--heap_size];
+               final int id = heap_id[heap_size];
+               int i = 0;
+               while(2*i+1 < heap_size)
+               {
+                    int child = 2*i+1;
+                    if(child+1 < heap_size && heap_f[child+1] < heap_f[child])
+                         child++;
+                    if(heap_f[child] >= f)
+                         break;
+                    heap_f[i] = heap_f[child];
+                    heap_id[i] = heap_id[child];
+                    i = child;
+               }
+               heap_f[i] = f;
+               heap_id[i] = id;
+               return top;
+          }
+
+     /**
+      * Single-target Jump Point Search for 4-connected movement.<br>
+      * Any shortest path can be rearranged, without changing its length,
+      * so that it only turns from an x run onto a y run where the earlier
+      * turn was blocked, while turns from y onto x may happen anywhere.
+      * Scans along x therefore only stop at such "forced" cells, scans
+      * along y stop wherever an x scan would find something, and A* runs
+      * over the handful of cells where scans stop (jump points) rather
+      * than over every cell.  Path lengths equal the breadth-first ones.
+      * @param origin starting cell
+      * @param target destination cell (compared by identity)
+      * @param grid grid to analyze
+      * @return shortest path, or null if there is none
+      */
+     Robot.GridCell[] jumpPointSearch(Robot.GridCell origin, Robot.GridCell target, Robot.GridCell[][] grid_)
+          {
+               prepare(grid_);
+               expansions = 0;
+               if(origin==target)
+                    return new Robot.GridCell[0];
+
+               //Target must actually be a cell of this grid
+               final int goal = indexOf(target);
+               if(target.x_coord-x_offset < 0 || target.x_coord-x_offset >= length ||
+                  target.y_coord-y_offset < 0 || target.y_coord-y_offset >= height ||
+                  cellAt(goal)!=target)
+                    return null;
+               jump_goal = goal;
+               fillJumpRows(goal);
+
+               final int start = indexOf(origin);
+               seen[start] = stamp;
+               dist[start] = 0;
+               parent[start] = -1;
+               heap_size = 0;
+               heapPush(manhattan(start,goal),start);
+
+               while(heap_size!=0)
+               {
+                    final int current = heapPop();
+                    if(closed[current]==stamp)
+                         continue;
+                    closed[current] = stamp;
+                    expansions++;
+                    if(current==goal)
+                         return buildJumpPath(goal);
+
+                    //Scan every direction except straight back where we came from
+                    final int from = parent[current];
+                    for(int k=0; k<4; k++)
+                    {
+                         int jump;
+                         switch(k)
+                         {
+                         case 0:
+                              if(from!=-1 && from/height < current/height) continue;
+                              jump = jumpAlongX(current,-height);
+                              break;
+                         case 1:
+                              if(from!=-1 && from/height > current/height) continue;
+                              jump = jumpAlongX(current,height);
+                              break;
+                         case 2:
+                              if(from!=-1 && from/height==current/height && from < current) continue;
+                              jump = jumpAlongY(current,-1);
+                              break;
+                         default:
+                              if(from!=-1 && from/height==current/height && from > current) continue;
+                              jump = jumpAlongY(current,1);
+                              break;
+                         }
+
+                         if(jump==-1 || closed[jump]==stamp)
+                              continue;
+                         final int g = dist[current] + manhattan(current,jump);
+                         if(seen[jump]==stamp && dist[jump]<=g)
+                              continue;
+                         seen[jump] = stamp;
+                         dist[jump] = g;
+                         parent[jump] = current;
+                         heapPush(g + manhattan(jump,goal),jump);
+                    }
+               }
+
+               return null;
+          }
+
+     /**Fills in the straight runs between the jump points leading to index*/
+     private Robot.GridCell[] buildJumpPath(int index)
+          {
+               Robot.GridCell[] path = new Robot.GridCell[dist[index]];
+               int i = path.length-1;
+               while(parent[index]!=-1)
+               {
+                    final int from = parent[index];
+                    final int step = from/height==index/height ? (from < index ? 1 : -1) : (from < index ? height : -height);
+                    for(int cell=index; cell!=from; cell-=step)
+                         path[i--] = cellAt(cell);
+                    index = from;
+               }
+               return path;
+          }
+}
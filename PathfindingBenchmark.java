@@ -0,0 +1,90 @@
+import java.util.Random;
+
+/**
+ * PathfindingBenchmark: compares the search strategies of
+ * Robot.RobotUtility.findShortestPath() on random arenas.<br><br>
+ * For each obstacle density, runs the same random origin/target pairs
+ * through BFS, A* and JPS and reports the average number of cells (or,
+ * for JPS, jump points) expanded per search and the average time per
+ * search.  Also checks that all three agree on path lengths.<br><br>
+ * Usage: java PathfindingBenchmark [size] [queries] [seed]
+ */
+public class PathfindingBenchmark
+{
+     private static final double[] DENSITIES = { 0.0, 0.05, 0.10, 0.20, 0.30, 0.40 };
+
+     public static void main(String[] args)
+          {
+               final int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+               final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+               final long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+               final Robot.RobotUtility.SearchStrategy[] strategies = Robot.RobotUtility.SearchStrategy.values();
+
+               System.out.println("Arena " + size + "x" + size + ", " + queries + " searches per density");
+               System.out.printf("%-8s %-6s %14s %12s%n","density","search","expanded/run","usec/run");
+
+               for(double density : DENSITIES)
+               {
+                    Random rand = new Random(seed);
+                    Robot.GridCell[][] grid = makeGrid(size,density,rand);
+                    Robot.GridCell[] origins = new Robot.GridCell[queries];
+                    Robot.GridCell[] targets = new Robot.GridCell[queries];
+                    for(int i=0; i<queries; i++)
+                    {
+                         origins[i] = randomEmpty(grid,rand);
+                         targets[i] = randomEmpty(grid,rand);
+                    }
+
+                    int[] lengths = new int[queries];
+                    int mismatches = 0;
+                    for(int s=0; s<strategies.length; s++)
+                    {
+                         //Warm up so the JIT doesn't skew the first strategy
+                         for(int i=0; i<queries; i++)
+                              Robot.RobotUtility.findShortestPath(origins[i],targets[i],grid,strategies[s]);
+
+                         long expanded = 0;
+                         long start = System.nanoTime();
+                         for(int i=0; i<queries; i++)
+                         {
+                              Robot.GridCell[] path = Robot.RobotUtility.findShortestPath(origins[i],targets[i],grid,strategies[s]);
+                              expanded+=PathEngine.get().getExpansions();
+                              int length = path==null ? -1 : path.length;
+                              if(s==0)
+                                   lengths[i] = length;
+                              else if(lengths[i]!=length)
+                                   mismatches++;
+                         }
+                         long elapsed = System.nanoTime() - start;
+
+                         System.out.printf("%-8.2f %-6s %14d %12d%n",density,strategies[s],expanded/queries,elapsed/1000/queries);
+                    }
+                    if(mismatches!=0)
+                         System.out.println("WARNING: " + mismatches + " path lengths differ from BFS");
+               }
+          }
+
+     private static Robot.GridCell[][] makeGrid(int size, double density, Random rand)
+          {
+               Robot.GridCell[][] grid = new Robot.GridCell[size][size];
+               for(int x=0; x<size; x++)
+                    for(int y=0; y<size; y++)
+                    {
+                         grid[x][y] = new Robot.GridCell();
+                         grid[x][y].x_coord = x;
+                         grid[x][y].y_coord = y;
+                         grid[x][y].contents = rand.nextDouble() < density ? Robot.GridObject.WALL : Robot.GridObject.EMPTY;
+                    }
+               return grid;
+          }
+
+     private static Robot.GridCell randomEmpty(Robot.GridCell[][] grid, Random rand)
+          {
+               while(true)
+               {
+                    Robot.GridCell cell = grid[rand.nextInt(grid.length)][rand.nextInt(grid[0].length)];
+                    if(cell.contents==Robot.GridObject.EMPTY)
+                         return cell;
+               }
+          }
+}
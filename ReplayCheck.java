@@ -0,0 +1,103 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * ReplayCheck: records a match with ReplayWriter and checks that
+ * ReplayReader gives back the same world.<br><br>
+ * Keeps a copy of the live world after every turn, then compares it with
+ * the replay turn by turn through next(), and at random turns through
+ * seek().  Robots' own output is thrown away while the match is played.
+ * The defaults give 20 robots, more than the writer's tables start out
+ * with, so growing them is checked too.<br><br>
+ * Usage: java ReplayCheck [players] [robots] [keyframe interval] [seed]
+ */
+public class ReplayCheck
+{
+     private static final int MAX_TURNS = 400, SEEKS = 200;
+
+     public static void main(String[] args) throws Exception
+          {
+               final String[] players = (args.length > 0 ? args[0] : "DemoBot,DefenderBot").split(",");
+               final int robots = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+               final int interval = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+               final long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+               File file = File.createTempFile("replay",".bin");
+               file.deleteOnExit();
+
+               //Play the match, keeping the world as it was after every turn
+               ArrayList<String> live = new ArrayList<String>();
+               PrintStream out = System.out;
+               System.setOut(new PrintStream(new ByteArrayOutputStream()));
+               try
+               {
+                    RoboSim sim = new RoboSim(players,robots,20,40,30,60,seed);
+                    ReplayWriter writer = new ReplayWriter(file,interval);
+                    sim.setReplay(writer);
+                    live.add(describe(sim));
+                    for(int turn=0; turn<MAX_TURNS; turn++)
+                    {
+                         final String winner = sim.executeSingleTimeStep();
+                         live.add(describe(sim));
+                         if(winner!=null)
+                              break;
+                    }
+                    writer.close();
+               }
+               finally
+               {
+                    System.setOut(out);
+               }
+
+               ReplayReader reader = new ReplayReader(file);
+               int mismatches = 0;
+               if(!describe(reader).equals(live.get(0)))
+                    mismatches++;
+               int turns = 0;
+               while(reader.next())
+               {
+                    turns++;
+                    if(reader.getTurn()!=turns || turns >= live.size() || !describe(reader).equals(live.get(turns)))
+                         mismatches++;
+               }
+               if(turns!=live.size()-1)
+                    mismatches++;
+
+               Random rand = new Random(seed);
+               for(int i=0; i<SEEKS; i++)
+               {
+                    final int turn = rand.nextInt(live.size());
+                    reader.seek(turn);
+                    if(reader.getTurn()!=turn || !describe(reader).equals(live.get(turn)))
+                         mismatches++;
+               }
+               reader.close();
+
+               System.out.println(players.length*robots + " robots, " + turns + " turns, keyframe every " + interval + ", " + file.length() + " bytes");
+               if(mismatches!=0)
+               {
+                    System.out.println("FAILED: " + mismatches + " turns differ from the live match");
+                    System.exit(1);
+               }
+               System.out.println("Replay matches the live match");
+          }
+
+     //Everything the display shows of every cell
+     private static String describe(WorldSource source)
+          {
+               Robot.GridCell[][] world = source.getWorldGrid();
+               StringBuilder description = new StringBuilder();
+               for(Robot.GridCell[] column : world)
+                    for(Robot.GridCell cell : column)
+                    {
+                         description.append(cell.contents.ordinal()).append(',').append(cell.fort_orientation).append(',').append(cell.capsule_power);
+                         if(cell.contents==Robot.GridObject.SELF)
+                              description.append(',').append(source.getOccupantPlayer(cell));
+                         description.append(';');
+                    }
+               return description.toString();
+          }
+}
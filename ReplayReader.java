@@ -0,0 +1,395 @@
+/**
+ * ReplayReader: plays back a match recorded by ReplayWriter, without
+ * running (or even loading) any robots.<br><br>
+ * The reader holds the world as of one turn.  next() moves it on a turn;
+ * seek() jumps to any turn by looking up the keyframe at or before it in
+ * the file's index, reading just that block, and replaying at most one
+ * keyframe interval of turns from there.<br><br>
+ * It serves the world the way RoboSim does for SimulatorGUI: through
+ * getWorldGrid(), and change marks backed by a ChangeJournal of its own,
+ * so the display redraws only what each turn changed.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+public class ReplayReader implements WorldSource
+{
+     private static final Robot.GridObject[] OBJECTS = Robot.GridObject.values();
+     private static final Robot.Direction[] DIRECTIONS = Robot.Direction.values();
+     private static final byte EMPTY = (byte)(Robot.GridObject.EMPTY.ordinal());
+     private static final byte SELF = (byte)(Robot.GridObject.SELF.ordinal());
+     private static final int JOURNAL_CAPACITY = 1<<18;
+
+     private final RandomAccessFile file;
+     private final FileChannel channel;
+
+     //From the header and trailer
+     private final int length, width, last_turn;
+     private final long seed;
+     private final String[] players;
+
+     //Turn and file position of each block's keyframe
+     private final int[] keyframe_turns;
+     private final long[] keyframe_positions;
+
+     //Block being read, uncompressed, and where we are in it
+     private int block_number = -1;
+     private byte[] block = new byte[0];
+     private int block_size, pos;
+     private final Inflater inflater = new Inflater();
+
+     //World as of turn: per cell, indexed x*width + y
+     private int turn;
+     private final byte[] contents, orientation;
+     private final int[] health, capsule_power, team;
+     private final ChangeJournal journal;
+
+     //Robot table, indexed by id
+     private int[] robot_team = new int[16], robot_x = new int[16], robot_y = new int[16], robot_health = new int[16], robot_charge = new int[16];
+     private boolean[] alive = new boolean[16];
+
+     //Cells handed out by getWorldGrid(), and the journal position they were last refreshed at
+     private Robot.GridCell[][] worldView;
+     private long worldViewMark;
+
+     /**
+      * Opens a replay at its first turn.
+      * @throws IOException if the file can't be read or isn't a complete
+      *                     replay
+      */
+     public ReplayReader(File file_) throws IOException
+          {
+               file = new RandomAccessFile(file_,"r");
+               channel = file.getChannel();
+
+               file.seek(0);
+               if(file.readInt()!=ReplayWriter.MAGIC || file.readInt()!=ReplayWriter.FORMAT)
+                    throw new IOException(file_ + " is not a replay");
+               length = file.readInt();
+               width = file.readInt();
+               seed = file.readLong();
+               file.readInt();  //keyframe interval: the index says where the keyframes are
+               players = new String[file.readInt()];
+               for(int i=0; i<players.length; i++)
+                    players[i] = file.readUTF();
+
+               //Trailer: index position, last turn, magic
+               if(file.length() < 16)
+                    throw new IOException(file_ + " is not a complete replay");
+               file.seek(file.length()-16);
+               final long index_at = file.readLong();
+               last_turn = file.readInt();
+               if(file.readInt()!=ReplayWriter.MAGIC)
+                    throw new IOException(file_ + " is not a complete replay (was the writer closed?)");
+               file.seek(index_at);
+               final int keyframes = file.readInt();
+               keyframe_turns = new int[keyframes];
+               keyframe_positions = new long[keyframes];
+               for(int i=0; i<keyframes; i++)
+               {
+                    keyframe_turns[i] = file.readInt();
+                    keyframe_positions[i] = file.readLong();
+               }
+
+               final int cells = length*width;
+               contents = new byte[cells];
+               orientation = new byte[cells];
+               health = new int[cells];
+               capsule_power = new int[cells];
+               team = new int[cells];
+               journal = new ChangeJournal(cells,JOURNAL_CAPACITY);
+               seek(keyframe_turns[0]);
+          }
+
+     public int getLength() { return length; }
+     public int getWidth() { return width; }
+
+     /**@return seed the match was played with*/
+     public long getSeed() { return seed; }
+
+     /**@return players, in the order they were given to RoboSim*/
+     public String[] getPlayers() { return players.clone(); }
+
+     public int getFirstTurn() { return keyframe_turns[0]; }
+     public int getLastTurn() { return last_turn; }
+
+     /**@return turn the world is at*/
+     public int getTurn() { return turn; }
+
+     /**
+      * @param id robot id
+      * @return player, x, y, health and charge of the robot (as player
+      *         number, indexing getPlayers(), and four numbers), or null
+      *         if there's no such robot at this turn
+      */
+     public int[] getRobot(int id)
+          {
+               if(id <= 0 || id >= alive.length || !alive[id])
+                    return null;
+               return new int[]{ robot_team[id], robot_x[id], robot_y[id], robot_health[id], robot_charge[id] };
+          }
+
+     /**
+      * Moves the world to a turn (clamped to the turns recorded).
+      */
+     public void seek(int target) throws IOException
+          {
+               target = Math.max(getFirstTurn(),Math.min(target,last_turn));
+
+               //Last keyframe at or before target; going on from where we are is quicker if that's in between
+               int keyframe = Arrays.binarySearch(keyframe_turns,target);
+               if(keyframe < 0)
+                    keyframe = -keyframe-2;
+               if(keyframe!=block_number || target < turn)
+               {
+                    loadBlock(keyframe);
+                    readRecord();
+               }
+               while(turn < target && pos < block_size)
+                    readRecord();
+          }
+
+     /**
+      * Moves the world on by one turn.
+      * @return false if the replay is over
+      */
+     public boolean next() throws IOException
+          {
+               if(pos < block_size)
+                    readRecord();
+               else if(block_number+1 < keyframe_turns.length)
+               {
+                    loadBlock(block_number+1);
+                    readRecord();
+               }
+               else
+                    return false;
+               return true;
+          }
+
+     /**Closes the file*/
+     public void close() throws IOException
+          {
+               inflater.end();
+               file.close();
+          }
+
+     private void loadBlock(int number) throws IOException
+          {
+               ByteBuffer lengths = ByteBuffer.allocate(8);
+               readFully(lengths,keyframe_positions[number]);
+               final int compressed_size = lengths.getInt(0);
+               block_size = lengths.getInt(4);
+               ByteBuffer compressed = ByteBuffer.allocate(compressed_size);
+               readFully(compressed,keyframe_positions[number]+8);
+
+               if(block.length < block_size)
+                    block = new byte[block_size];
+               inflater.reset();
+               inflater.setInput(compressed.array());
+               try
+               {
+                    int done = 0;
+                    while(done < block_size && !inflater.finished())
+                         done+=inflater.inflate(block,done,block_size-done);
+                    if(done!=block_size)
+                         throw new IOException("replay block "+number+" is truncated");
+               }
+               catch(DataFormatException e)
+               {
+                    throw new IOException("replay block "+number+" is corrupt: "+e.getMessage());
+               }
+               block_number = number;
+               pos = 0;
+          }
+
+     private void readFully(ByteBuffer into, long position) throws IOException
+          {
+               while(into.hasRemaining())
+                    if(channel.read(into,position+into.position()) < 0)
+                         throw new IOException("replay ends early");
+          }
+
+     private void readRecord() throws IOException
+          {
+               final byte type = block[pos++];
+               if(type==ReplayWriter.KEYFRAME)
+               {
+                    turn = getVarint();
+
+                    //Cells not listed are EMPTY
+                    int next = -1;
+                    for(int count=getVarint(); count>0; count--)
+                    {
+                         final int index = next + 1 + getVarint();
+                         for(int i=next+1; i<index; i++)
+                              setCell(i,EMPTY,(byte)0,0,0,0);
+                         getCell(index);
+                         next = index;
+                    }
+                    for(int i=next+1; i<contents.length; i++)
+                         setCell(i,EMPTY,(byte)0,0,0,0);
+
+                    Arrays.fill(alive,false);
+                    int id = 0;
+                    for(int count=getVarint(); count>0; count--)
+                    {
+                         id+=getVarint();
+                         readRobot(id);
+                    }
+               }
+               else if(type==ReplayWriter.TURN)
+               {
+                    turn+=getVarint();
+                    int index = -1;
+                    for(int count=getVarint(); count>0; count--)
+                    {
+                         index+=1 + getVarint();
+                         getCell(index);
+                    }
+                    int id = 0;
+                    for(int count=getVarint(); count>0; count--)
+                    {
+                         id+=getVarint();
+                         readRobot(id);
+                    }
+                    id = 0;
+                    for(int count=getVarint(); count>0; count--)
+                    {
+                         id+=getVarint();
+                         alive[id] = false;
+                    }
+               }
+               else
+                    throw new IOException("replay block "+block_number+" is corrupt");
+               journal.setTurn(turn);
+          }
+
+     private void getCell(int index)
+          {
+               final byte what = block[pos++];
+               byte way = 0;
+               int health_ = 0, power = 0, owner = 0;
+               switch(OBJECTS[what])
+               {
+               case WALL:
+                    health_ = getSigned();
+                    break;
+               case FORT:
+                    health_ = getSigned();
+                    way = block[pos++];
+                    break;
+               case CAPSULE:
+                    power = getSigned();
+                    break;
+               case SELF:
+                    owner = getVarint();
+                    break;
+               default:
+                    break;
+               }
+               setCell(index,what,way,health_,power,owner);
+          }
+
+     private void setCell(int index, byte what, byte way, int health_, int power, int owner)
+          {
+               if(contents[index]==what && orientation[index]==way && health[index]==health_ && capsule_power[index]==power && team[index]==owner)
+                    return;
+               contents[index] = what;
+               orientation[index] = way;
+               health[index] = health_;
+               capsule_power[index] = power;
+               team[index] = owner;
+               journal.record(index);
+          }
+
+     private void readRobot(int id)
+          {
+               if(id >= alive.length)
+               {
+                    final int size = Math.max(id+1,alive.length*2);
+                    robot_team = Arrays.copyOf(robot_team,size);
+                    robot_x = Arrays.copyOf(robot_x,size);
+                    robot_y = Arrays.copyOf(robot_y,size);
+                    robot_health = Arrays.copyOf(robot_health,size);
+                    robot_charge = Arrays.copyOf(robot_charge,size);
+                    alive = Arrays.copyOf(alive,size);
+               }
+               robot_team[id] = getVarint();
+               robot_x[id] = getVarint();
+               robot_y[id] = getVarint();
+               robot_health[id] = getSigned();
+               robot_charge[id] = getSigned();
+               alive[id] = true;
+          }
+
+     private int getVarint()
+          {
+               int value = 0;
+               for(int shift=0; ; shift+=7)
+               {
+                    final byte b = block[pos++];
+                    value |= (b & 0x7F) << shift;
+                    if(b >= 0)
+                         return value;
+               }
+          }
+
+     private int getSigned()
+          {
+               final int value = getVarint();
+               return (value >>> 1) ^ -(value & 1);
+          }
+
+     public Robot.GridCell[][] getWorldGrid()
+          {
+               int[] changed = null;
+               if(worldView==null)
+               {
+                    worldView = new Robot.GridCell[length][width];
+                    for(int i=0; i<length; i++)
+                         for(int j=0; j<width; j++)
+                         {
+                              worldView[i][j] = new Robot.GridCell();
+                              worldView[i][j].x_coord = i;
+                              worldView[i][j].y_coord = j;
+                         }
+               }
+               else
+                    changed = journal.changedSincePosition(worldViewMark);
+               worldViewMark = journal.position();
+
+               if(changed==null)
+               {
+                    for(int n=0; n<contents.length; n++)
+                         refreshWorldCell(n);
+               }
+               else
+                    for(int n : changed)
+                         refreshWorldCell(n);
+               return worldView;
+          }
+
+     private void refreshWorldCell(int n)
+          {
+               Robot.GridCell cell = worldView[n/width][n%width];
+               cell.contents = OBJECTS[contents[n]];
+               cell.fort_orientation = orientation[n]==0 ? null : DIRECTIONS[orientation[n]-1];
+               cell.capsule_power = capsule_power[n];
+          }
+
+     public String getOccupantPlayer(Robot.GridCell cell)
+          {
+               final int n = cell.x_coord*width + cell.y_coord;
+               return contents[n]==SELF ? players[team[n]] : null;
+          }
+
+     public long getChangeMark() { return journal.position(); }
+
+     public int[] getChangedCellIndices(long mark) { return journal.changedSincePosition(mark); }
+}
@@ -0,0 +1,386 @@
+/**
+ * ReplayWriter: records a match to a replay file as it is played.<br><br>
+ * Hand one to RoboSim.setReplay() and close() it when the match is over;
+ * ReplayReader plays the file back without running any robots.<br><br>
+ * The file is a header, a series of blocks, and an index.  Each block
+ * starts with a keyframe (every cell that isn't EMPTY, and the robot
+ * table) and goes on with one record per turn holding only the cells and
+ * robots that changed, so moves, attacks, deaths, builds and capsules all
+ * show up as the cells and robots they changed.  Numbers are written as
+ * varints, cell indices as gaps from the previous one, and each block is
+ * compressed with a Deflater of its own when it is finished.  The index
+ * at the end lists the turn and position of every keyframe, followed by
+ * the index's own position, the last turn and the magic number again, so
+ * a reader can start at any keyframe without reading what comes before.
+ * <br><br>
+ * Writes go through a fixed-size buffer to a FileChannel, so memory use
+ * doesn't grow with the match, only with the size of one block.
+ * RoboSim can't stop a turn for an I/O error, so the first one is kept
+ * and thrown by close(), which also finishes the file.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+public class ReplayWriter
+{
+     //"RSRP", and the layout described above
+     static final int MAGIC = 0x52535250;
+     static final int FORMAT = 1;
+
+     /**Record types within a block*/
+     static final byte KEYFRAME = 1, TURN = 2;
+
+     //Size of the buffer between us and the file
+     private static final int BUFFER_SIZE = 1 << 16;
+
+     private final FileChannel channel;
+     private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+     private long written;
+
+     //Turns between keyframes
+     private final int interval;
+
+     //Block being built, uncompressed
+     private byte[] block = new byte[BUFFER_SIZE];
+     private int block_size;
+
+     private final Deflater deflater = new Deflater();
+     private byte[] compressed = new byte[BUFFER_SIZE];
+
+     //Turn and file position of each block's keyframe
+     private final ArrayList<long[]> index = new ArrayList<long[]>();
+
+     //Match being recorded, and the turn last recorded
+     private RoboSim sim;
+     private int last_turn;
+
+     //Robot table as last recorded, indexed by id; alive holds the stamp of the last turn the robot was seen
+     private int[] team = new int[16], x = new int[16], y = new int[16], health = new int[16], charge = new int[16], alive = new int[16];
+     private int stamp;
+
+     private IOException error;
+     private boolean closed;
+
+     /**
+      * Creates (or empties) a replay file.
+      * @param file where to write
+      * @param keyframe_interval turns between keyframes; a reader seeking
+      *                          to a turn replays at most this many turns
+      *                          past the nearest keyframe
+      */
+     public ReplayWriter(File file, int keyframe_interval) throws IOException
+          {
+               if(keyframe_interval <= 0)
+                    throw new IllegalArgumentException("keyframe interval must be positive");
+               interval = keyframe_interval;
+               channel = new FileOutputStream(file).getChannel();
+          }
+
+     /**Writes the header and the first keyframe; called by RoboSim.setReplay()*/
+     void begin(RoboSim sim_, ArenaGrid arena, String[] players, long seed, int turn, int[] robots)
+          {
+               sim = sim_;
+               try
+               {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream header = new DataOutputStream(bytes);
+                    header.writeInt(MAGIC);
+                    header.writeInt(FORMAT);
+                    header.writeInt(arena.length);
+                    header.writeInt(arena.width);
+                    header.writeLong(seed);
+                    header.writeInt(interval);
+                    header.writeInt(players.length);
+                    for(String player : players)
+                         header.writeUTF(player);
+                    header.flush();
+                    write(bytes.toByteArray(),bytes.size());
+               }
+               catch(IOException e)
+               {
+                    failed(e);
+               }
+               keyframe(arena,turn,robots);
+          }
+
+     /**
+      * Records the turn just played; called by RoboSim after every turn.
+      * @param changed indices of the cells changed since the last turn
+      *                recorded, or null if that isn't known
+      * @param robots robot table, as for keyframe()
+      */
+     void turn(ArenaGrid arena, int turn, int[] changed, int[] robots)
+          {
+               if(closed)
+                    return;
+               if(changed==null || turn % interval==0)
+               {
+                    keyframe(arena,turn,robots);
+                    return;
+               }
+
+               putByte(TURN);
+               putVarint(turn - last_turn);
+               last_turn = turn;
+
+               Arrays.sort(changed);
+               putVarint(changed.length);
+               int previous = -1;
+               for(int index : changed)
+               {
+                    putVarint(index - previous - 1);
+                    putCell(arena,index);
+                    previous = index;
+               }
+
+               //Robots that are new or changed, then robots that are gone
+               stamp++;
+               int count = 0;
+               for(int i=0; i<robots.length; i+=6)
+               {
+                    final int id = grow(robots[i]);
+                    if(alive[id]!=stamp-1 || differs(robots,i))
+                         count++;
+               }
+               putVarint(count);
+               previous = 0;
+               for(int i=0; i<robots.length; i+=6)
+               {
+                    final int id = robots[i];
+                    final boolean changed_row = alive[id]!=stamp-1 || differs(robots,i);
+                    alive[id] = stamp;
+                    if(changed_row)
+                    {
+                         putVarint(id - previous);
+                         previous = id;
+                         putRobot(robots,i);
+                    }
+               }
+               count = 0;
+               for(int id=1; id<alive.length; id++)
+                    if(alive[id]==stamp-1)
+                         count++;
+               putVarint(count);
+               previous = 0;
+               for(int id=1; id<alive.length; id++)
+                    if(alive[id]==stamp-1)
+                    {
+                         putVarint(id - previous);
+                         previous = id;
+                    }
+          }
+
+     /**
+      * Ends the current block and starts a new one with a keyframe.
+      * @param robots robot table: id, team, x, y, health and charge of
+      *               every robot, six ints each, in increasing order of id
+      */
+     private void keyframe(ArenaGrid arena, int turn, int[] robots)
+          {
+               finishBlock();
+               index.add(new long[]{ turn, written + buffer.position() });
+               putByte(KEYFRAME);
+               putVarint(turn);
+               last_turn = turn;
+
+               int count = 0;
+               for(int i=arena.blocked.nextSet(0,arena.cells); i!=-1; i=arena.blocked.nextSet(i+1,arena.cells))
+                    count++;
+               putVarint(count);
+               int previous = -1;
+               for(int i=arena.blocked.nextSet(0,arena.cells); i!=-1; i=arena.blocked.nextSet(i+1,arena.cells))
+               {
+                    putVarint(i - previous - 1);
+                    putCell(arena,i);
+                    previous = i;
+               }
+
+               stamp++;
+               putVarint(robots.length/6);
+               previous = 0;
+               for(int i=0; i<robots.length; i+=6)
+               {
+                    final int id = grow(robots[i]);
+                    alive[id] = stamp;
+                    putVarint(id - previous);
+                    previous = id;
+                    putRobot(robots,i);
+               }
+          }
+
+     private void putCell(ArenaGrid arena, int index)
+          {
+               final int x_ = index/arena.width, y_ = index%arena.width;
+               final Robot.GridObject what = arena.getContents(x_,y_);
+               putByte((byte)(what.ordinal()));
+               switch(what)
+               {
+               case WALL:
+                    putSigned(arena.getHealth(x_,y_));
+                    break;
+               case FORT:
+                    putSigned(arena.getHealth(x_,y_));
+                    final Robot.Direction way = arena.getOrientation(x_,y_);
+                    putByte((byte)(way==null ? 0 : way.ordinal()+1));
+                    break;
+               case CAPSULE:
+                    putSigned(arena.getCapsulePower(x_,y_));
+                    break;
+               case SELF:
+                    putVarint(sim.teamAt(index));
+                    break;
+               default:
+                    break;
+               }
+          }
+
+     //Writes the row of robots starting at i and remembers it
+     private void putRobot(int[] robots, int i)
+          {
+               final int id = robots[i];
+               putVarint(team[id] = robots[i+1]);
+               putVarint(x[id] = robots[i+2]);
+               putVarint(y[id] = robots[i+3]);
+               putSigned(health[id] = robots[i+4]);
+               putSigned(charge[id] = robots[i+5]);
+          }
+
+     private boolean differs(int[] robots, int i)
+          {
+               final int id = robots[i];
+               return team[id]!=robots[i+1] || x[id]!=robots[i+2] || y[id]!=robots[i+3] || health[id]!=robots[i+4] || charge[id]!=robots[i+5];
+          }
+
+     //Makes room in the robot table for id; call it in a statement of its own, as it may replace the arrays
+     private int grow(int id)
+          {
+               if(id >= alive.length)
+               {
+                    final int size = Math.max(id+1,alive.length*2);
+                    team = Arrays.copyOf(team,size);
+                    x = Arrays.copyOf(x,size);
+                    y = Arrays.copyOf(y,size);
+                    health = Arrays.copyOf(health,size);
+                    charge = Arrays.copyOf(charge,size);
+                    alive = Arrays.copyOf(alive,size);
+               }
+               return id;
+          }
+
+     private void putByte(byte value)
+          {
+               if(block_size==block.length)
+                    block = Arrays.copyOf(block,block.length*2);
+               block[block_size++] = value;
+          }
+
+     private void putVarint(int value)
+          {
+               while((value & ~0x7F)!=0)
+               {
+                    putByte((byte)((value & 0x7F) | 0x80));
+                    value >>>= 7;
+               }
+               putByte((byte)value);
+          }
+
+     //Zigzag, so small negative numbers stay short
+     private void putSigned(int value) { putVarint((value << 1) ^ (value >> 31)); }
+
+     /**Compresses the block built so far and writes it out as turn, lengths and data*/
+     private void finishBlock()
+          {
+               if(block_size==0)
+                    return;
+               deflater.reset();
+               deflater.setInput(block,0,block_size);
+               deflater.finish();
+               int length = 0;
+               while(!deflater.finished())
+               {
+                    if(length==compressed.length)
+                         compressed = Arrays.copyOf(compressed,compressed.length*2);
+                    length+=deflater.deflate(compressed,length,compressed.length-length);
+               }
+               try
+               {
+                    byte[] lengths = ByteBuffer.allocate(8).putInt(length).putInt(block_size).array();
+                    write(lengths,8);
+                    write(compressed,length);
+               }
+               catch(IOException e)
+               {
+                    failed(e);
+               }
+               block_size = 0;
+          }
+
+     private void write(byte[] data, int length) throws IOException
+          {
+               if(error!=null)
+                    return;
+               for(int done=0; done<length; )
+               {
+                    if(!buffer.hasRemaining())
+                         drain();
+                    final int chunk = Math.min(buffer.remaining(),length-done);
+                    buffer.put(data,done,chunk);
+                    done+=chunk;
+               }
+          }
+
+     private void drain() throws IOException
+          {
+               buffer.flip();
+               while(buffer.hasRemaining())
+                    written+=channel.write(buffer);
+               buffer.clear();
+          }
+
+     private void failed(IOException e)
+          {
+               if(error==null)
+                    error = e;
+          }
+
+     /**
+      * Finishes the file: writes out the last block and the keyframe index.
+      * @throws IOException the first error met while writing, if any
+      */
+     public void close() throws IOException
+          {
+               if(closed)
+                    return;
+               closed = true;
+               finishBlock();
+               deflater.end();
+               try
+               {
+                    if(error==null)
+                    {
+                         final long index_at = written + buffer.position();
+                         ByteBuffer entries = ByteBuffer.allocate(4 + index.size()*12 + 16);
+                         entries.putInt(index.size());
+                         for(long[] entry : index)
+                              entries.putInt((int)entry[0]).putLong(entry[1]);
+                         entries.putLong(index_at).putInt(last_turn).putInt(MAGIC);
+                         write(entries.array(),entries.capacity());
+                         drain();
+                    }
+               }
+               catch(IOException e)
+               {
+                    failed(e);
+               }
+               channel.close();
+               if(error!=null)
+                    throw error;
+          }
+}
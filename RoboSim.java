@@ -1,11 +1,30 @@
 \/**
  * RoboSim: Main simulator logic class.
  */
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Constructor;
-public class RoboSim
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+public class RoboSim implements WorldSource
 {
      /**Exception class*/
      public static class RoboSimExecutionException extends Exception
@@ -53,8 +72,8 @@ public class RoboSim
                               return false;
                          SimGridCell origin_downcast = (SimGridCell)(origin);
                          SimGridCell potential_ally_downcast = (SimGridCell)(potential_ally);
-                         if(potential_ally_downcast.occupant_data!=null &&
-                            potential_ally_downcast.occupant_data.player.equals(origin_downcast.occupant_data.player))
+                         if(potential_ally_downcast.occupant_player!=null &&
+                            potential_ally_downcast.occupant_player.equals(origin_downcast.occupant_player))
                               return true;
                     default:
                          return false;
@@ -64,104 +83,453 @@ public class RoboSim
 
      private static class RobotData
      {
-          public SimGridCell assoc_cell;
+          public int id;
+
+          //Position in turnOrder, or -1 until the robot's first turn
+          public int slot = -1;
+          public int x, y;
           public Robot.Robot_Specs specs;
           public Robot.Robot_Status status;
           public Robot robot;
           public String player;
 
-          //Build information
+          //Team of player, and our position in its member list
+          public Team team;
+          public int team_slot;
+
+          //Build information (build_x is -1 if no build target)
           public Robot.BuildStatus whatBuilding;
           public int investedPower;
-          public SimGridCell invested_assoc_cell;
+          public int build_x = -1, build_y = -1;
 
           //Buffered radio messages
           public List<byte[]> buffered_radio;
+
+          //Journal position as of our last look at the whole world, or -1
+          public long journal_mark = -1;
+
+          //Power and charge at the start of the turn, as scanEnemy() reports them during simultaneous turns
+          public int start_power, start_charge;
+
+          //Last act() call run under time limits, which may still be going if it ran out of time
+          public TimedAct acting;
+     }
+
+     /**One player's robots, kept up to date as robots are built and destroyed*/
+     private static class Team
+     {
+          public int id;
+          public String player;
+          public ArrayList<RobotData> members = new ArrayList<RobotData>();
+
+          //Cells holding our robots, indexed like the arena
+          public Bitboard cells;
+     }
+
+     /**How one player is doing, as reported by getStandings()*/
+     public static class Standing
+     {
+          /**Name of player's Robot class*/
+          public String player;
+
+          /**Number of robots player has left*/
+          public int robots;
+
+          /**Total health of those robots*/
+          public int health;
+
+          /**Total charge of those robots*/
+          public int charge;
      }
 
+     /**Cell of the grid handed to SimulatorGUI, with the owner of its robot (if any)*/
      private static class SimGridCell extends Robot.GridCell
      {
-          public RobotData occupant_data;
-          public int wallforthealth;
+          public String occupant_player;
      }
 
      //RoboSim environmental constants
      private final int WALL_HEALTH = 10;
      private final int WALL_DEFENSE = 10;
+     private final int JOURNAL_CAPACITY = 1<<18;
 
      //RoboSim execution data (world grid, turn order, GUI reference, etc.)
-     private SimGridCell[][] worldGrid;
+     private ArenaGrid arena;
      private ArrayList<RobotData> turnOrder;
      private int turnOrder_pos;
+
+     /*Robots destroyed this turn are left in turnOrder as nulls, and robots
+      *built this turn wait in pendingSpawns; both are sorted out at the end
+      *of the turn by compactTurnOrder()*/
+     private int tombstones;
+     private ArrayList<RobotData> pendingSpawns = new ArrayList<RobotData>();
+
+     //Teams indexed by id, in the order players were first seen, and how many still have robots
+     private ArrayList<Team> teams = new ArrayList<Team>();
+     private HashMap<String,Team> teamsByPlayer = new HashMap<String,Team>();
+     private int aliveTeams;
+
+     /**@return player's team, registering it if this is the first we've heard of player*/
+     private Team teamOf(String player)
+          {
+               Team team = teamsByPlayer.get(player);
+               if(team==null)
+               {
+                    team = new Team();
+                    team.id = teams.size();
+                    team.player = player;
+                    team.cells = new Bitboard(arena.length*arena.width);
+                    teams.add(team);
+                    teamsByPlayer.put(player,team);
+               }
+               return team;
+          }
      private SimulatorGUI gui;
 
-     /**This is so SimulatorGUI can get a copy of world*/
-     public Robot.GridCell[][] getWorldGrid() { return worldGrid; }
+     //Where robots decide in simultaneous-turn mode; null for one robot at a time
+     private ExecutorService decisionPool;
+
+     //Where the match is being recorded, if anywhere, and the journal position recorded up to
+     private ReplayWriter replay;
+     private long replayMark;
+
+     //Time limits for each act() call in milliseconds (0 for none), and whether breaking one destroys the robot
+     private long wallLimit, cpuLimit;
+     private boolean forfeitOnViolation;
+
+     //Time limits broken so far, oldest first, and how many times by each player
+     private ArrayList<String> violations = new ArrayList<String>();
+     private HashMap<String,Integer> violationCounts = new HashMap<String,Integer>();
+
+     //Log of changed cells, for getChangedCells()
+     private ChangeJournal journal;
+
+     //Where the robots are, for nearest-robot queries
+     private RobotIndex robotIndex;
+
+     //Every robot ever created, indexed by id; null once destroyed.  Id 0 means "no robot".
+     private ArrayList<RobotData> robots;
+
+     //Cells handed out by getWorldGrid(), created on first request
+     private SimGridCell[][] worldView;
+
+     //Journal position worldView was last refreshed at
+     private long worldViewMark;
+
+     //Number of completed timesteps
+     private int turn;
+
+     //Long-range route planner over the arena, built on first use
+     private HierarchicalPathfinder planner;
+
+     /**Tells the route planner (if any) that a cell's contents changed*/
+     private void terrainChanged(int x, int y)
+          {
+               if(planner!=null)
+                    planner.cellChanged(x,y,arena.getContents(x,y));
+          }
+
+     /**@return robot in cell (x,y), or null*/
+     private RobotData occupantOf(int x, int y)
+          {
+               return robots.get(arena.getOccupant(x,y));
+          }
+
+     /**@return team id of the robot in the cell at index, for ReplayWriter*/
+     int teamAt(int index)
+          {
+               return occupantOf(index/arena.width,index%arena.width).team.id;
+          }
+
+     /**
+      * Takes a destroyed robot out of the world and the turn order.
+      * @param dead robot to remove
+      */
+     private void removeRobot(RobotData dead) throws RoboSimExecutionException
+          {
+               //Handle in-progress build, reusing setBuildTarget() to handle interruption of build due to death
+               (new RoboAPIImplementor(dead)).setBuildTarget(null,null);
+
+               //Handle cell
+               arena.setOccupant(dead.x,dead.y,0);
+               arena.setContents(dead.x,dead.y,arena.getHealth(dead.x,dead.y)>0 ? Robot.GridObject.FORT : Robot.GridObject.EMPTY);
+               robots.set(dead.id,null);
+               robotIndex.remove(dead.id);
+               dead.team.cells.set(arena.index(dead.x,dead.y),false);
+               terrainChanged(dead.x,dead.y);
+
+               //Leave team, moving its last member into our place
+               ArrayList<RobotData> members = dead.team.members;
+               RobotData last = members.remove(members.size()-1);
+               if(last!=dead)
+               {
+                    last.team_slot = dead.team_slot;
+                    members.set(dead.team_slot,last);
+               }
+               if(members.isEmpty())
+                    aliveTeams--;
+
+               //Leave a tombstone in turnOrder
+               if(dead.slot!=-1)
+               {
+                    turnOrder.set(dead.slot,null);
+                    tombstones++;
+               }
+               else
+                    pendingSpawns.remove(dead);
+          }
+
+     /**Drops destroyed robots from turnOrder and adds the ones built this turn*/
+     private void compactTurnOrder()
+          {
+               if(tombstones > 0)
+               {
+                    int live = 0;
+                    for(int i=0; i<turnOrder.size(); i++)
+                    {
+                         RobotData data = turnOrder.get(i);
+                         if(data!=null)
+                         {
+                              data.slot = live;
+                              turnOrder.set(live++,data);
+                         }
+                    }
+                    turnOrder.subList(live,turnOrder.size()).clear();
+                    tombstones = 0;
+               }
+
+               for(RobotData data : pendingSpawns)
+               {
+                    data.slot = turnOrder.size();
+                    turnOrder.add(data);
+               }
+               pendingSpawns.clear();
+          }
+
+     /**
+      * Puts a new robot into an empty cell and gives it an id.  The caller
+      * fills in the rest of its data.
+      * @return the new robot's data
+      */
+     private RobotData placeRobot(int x, int y, String player)
+          {
+               RobotData data = new RobotData();
+               data.id = robots.size();
+               data.x = x;
+               data.y = y;
+               data.player = player;
+               data.team = teamOf(player);
+               data.team_slot = data.team.members.size();
+               data.team.members.add(data);
+               if(data.team.members.size()==1)
+                    aliveTeams++;
+               robots.add(data);
+               robotIndex.add(data.id,x,y,data.team.id);
+               data.team.cells.set(arena.index(x,y),true);
+               arena.setContents(x,y,Robot.GridObject.SELF);
+               arena.setOccupant(x,y,data.id);
+               return data;
+          }
+
+     //Distance fields handed out this turn, shared by everyone asking for the same one
+     private HashMap<String,DistanceField> fieldCache = new HashMap<String,DistanceField>();
+     private int fieldCacheTurn = -1;
+
+     //Scratch list of cell indices (distance field sources)
+     private int[] sourceCells = new int[16];
+
+     /**@return number of timesteps executed so far*/
+     public int getTurn() { return turn; }
+
+     /**
+      * Collects into sourceCells the cells containing kind, as player would
+      * see them: ENEMY is robots not on player's team.
+      * @return number of cells collected
+      */
+     private int gatherCells(Robot.GridObject kind, String player)
+          {
+               int count = 0;
+               if(kind==Robot.GridObject.ENEMY)
+               {
+                    final Team own = teamsByPlayer.get(player);
+                    for(Team team : teams)
+                         if(team!=own)
+                              for(RobotData data : team.members)
+                                   count = addCell(count,arena.index(data.x,data.y));
+               }
+               else if(kind==Robot.GridObject.WALL || kind==Robot.GridObject.FORT || kind==Robot.GridObject.CAPSULE)
+               {
+                    final Bitboard board = (kind==Robot.GridObject.WALL) ? arena.walls : (kind==Robot.GridObject.FORT) ? arena.forts : arena.capsules;
+                    for(int i=board.nextSet(0,arena.cells); i!=-1; i=board.nextSet(i+1,arena.cells))
+                         count = addCell(count,i);
+               }
+               else
+               {
+                    final byte ordinal = (byte)(kind.ordinal());
+                    for(int i=0; i<arena.cells; i++)
+                         if(arena.contentsAt(i)==ordinal)
+                              count = addCell(count,i);
+               }
+               return count;
+          }
+
+     private int addCell(int count, int index)
+          {
+               if(count==sourceCells.length)
+                    sourceCells = Arrays.copyOf(sourceCells,count*2);
+               sourceCells[count] = index;
+               return count+1;
+          }
+
+     /**
+      * Looks up a distance field in the per-turn cache, computing it on
+      * the first request of the turn.
+      * @param key identifies the field (kind, and team if team-relative)
+      * @param kind contents of the source cells, or null to use rally
+      * @param player team from whose perspective ENEMY is meant
+      * @param rally index of the single source cell if kind is null
+      * @return the shared field
+      */
+     private DistanceField getCachedField(String key, Robot.GridObject kind, String player, int rally)
+          {
+               if(fieldCacheTurn!=turn)
+               {
+                    fieldCache.clear();
+                    fieldCacheTurn = turn;
+               }
+
+               DistanceField field = fieldCache.get(key);
+               if(field==null)
+               {
+                    if(kind==null)
+                         field = PathEngine.get().distanceField(arena,new int[] { rally },1);
+                    else
+                         field = PathEngine.get().distanceField(arena,sourceCells,gatherCells(kind,player));
+                    fieldCache.put(key,field);
+               }
+               return field;
+          }
+
+     /**This is so SimulatorGUI can get a copy of world.  The cells are
+      * created once; each call refreshes the ones changed since the last.*/
+     public Robot.GridCell[][] getWorldGrid()
+          {
+               int[] changed = null;
+               if(worldView==null)
+               {
+                    worldView = new SimGridCell[arena.length][arena.width];
+                    for(int i=0; i<arena.length; i++)
+                         for(int j=0; j<arena.width; j++)
+                         {
+                              worldView[i][j] = new SimGridCell();
+                              worldView[i][j].x_coord = i;
+                              worldView[i][j].y_coord = j;
+                         }
+               }
+               else
+                    changed = journal.changedSincePosition(worldViewMark);
+               worldViewMark = journal.position();
+
+               if(changed==null)
+               {
+                    for(int i=0; i<arena.length; i++)
+                         for(int j=0; j<arena.width; j++)
+                              refreshWorldCell(i,j);
+               }
+               else
+                    for(int index : changed)
+                         refreshWorldCell(index/arena.width,index%arena.width);
+               return worldView;
+          }
+
+     private void refreshWorldCell(int x, int y)
+          {
+               SimGridCell cell = worldView[x][y];
+               RobotData occupant = occupantOf(x,y);
+               cell.contents = arena.getContents(x,y);
+               cell.fort_orientation = arena.getOrientation(x,y);
+               cell.capsule_power = arena.getCapsulePower(x,y);
+               cell.occupant_player = occupant!=null ? occupant.player : null;
+          }
+
+     /**So SimulatorGUI can redraw only what changed:
+      * @return mark standing for every change to the world so far*/
+     public long getChangeMark() { return journal.position(); }
+
+     /**
+      * @param mark value of getChangeMark() at the point of interest
+      * @return indices (x*width + y) of the cells changed since then, each
+      *         once, or null if that's too long ago to tell
+      */
+     public int[] getChangedCellIndices(long mark) { return journal.changedSincePosition(mark); }
 
      /**SimulatorGUI needs to see who owns the robots in the cells
       * This is a hack to allow this by downcasting the passed GridCell
       * to SimGridCell and extracting the data.*/
      public String getOccupantPlayer(Robot.GridCell to_convert)
           {
-               return ((SimGridCell)(to_convert)).occupant_data.player;
+               return ((SimGridCell)(to_convert)).occupant_player;
           }
 
-     //Always good to have an RNG handy
-     Random generator;
+     /**Seed everything random about the match is derived from*/
+     private long seed;
+
+     /**Independent random streams for obstacle placement, robot placement,
+      * and hit rolls, so that e.g. the map depends on nothing but the seed*/
+     private SplittableRandom mapRandom, spawnRandom, combatRandom;
 
-     /**Helper method to retrieve a subgrid of the world grid
+     /**@return seed of this match; pass it to the constructor to replay it*/
+     public long getSeed() { return seed; }
+
+     /**Helper method to retrieve a sanitized subgrid of the world
       * @param x_left left x coordinate (inclusive)
       * @param y_up smaller y coordinate (inclusive)
       * @param x_right right x coordinate (inclusive)
       * @param y_down larger y coordinate (inclusive)
-      * @return subgrid of the world grid (NOT copied or sanitized)
+      * @param player String containing player's name.  Used to create
+      *               sanitized grid as it would be seen from player's
+      *               perspective.
+      * @return sanitized copy of the subgrid from player's perspective
       */
-     private SimGridCell[][] getSubGrid(int x_left, int y_up, int x_right, int y_down)
+     private Robot.GridCell[][] getSubGrid(int x_left, int y_up, int x_right, int y_down, String player)
           {
                final int x_length = x_right - x_left + 1;
                final int y_height = y_down - y_up + 1;
 
-               SimGridCell[][] to_return = new SimGridCell[x_length][y_height];
+               Robot.GridCell[][] to_return = new Robot.GridCell[x_length][y_height];
                for(int i=x_left; i<=x_right; i++)
                     for(int j=y_up; j<=y_down; j++)
-                         to_return[i-x_left][j-y_up] = worldGrid[i][j];
+                         to_return[i-x_left][j-y_up] = sanitizeCell(i,j,player);
                
                return to_return;
           }
 
-     /**Sanitizer to create a GridCell[][] 2D array to give to client.
-      * @param simgrid SimGridCell 2D array with cells to sanitize
+     /**Sanitizer to create a GridCell to give to client.<br>
+      * GridCell's fields are public, so every call makes a new one: a cell
+      * handed out can't be shared with anyone else, or with a later call.
+      * Robots that want the world without any objects created use the
+      * getVisibleNeighborhood() and getWorld() overloads taking buffers.
+      * @param x x coordinate of cell
+      * @param y y coordinate of cell
       * @param player String containing player's name.  Used to create
-      *               sanitized grid as it would be seen from player's
+      *               sanitized cell as it would be seen from player's
       *               perspective.
-      * @return sanitized grid or subgrid from player's perspective
+      * @return new cell holding what player may know about (x,y)
       */
-     private static Robot.GridCell[][] sanitizeGrid(SimGridCell[][] simgrid, String player)
+     private Robot.GridCell sanitizeCell(int x, int y, String player)
           {
-               Robot.GridCell[][] to_return = new Robot.GridCell[simgrid.length][simgrid[0].length];
-               for(int i=0; i<simgrid.length; i++)
-                    for(int j=0; j<simgrid[0].length; j++)
-                    {
-                    	SimGridCell sanitized;
-                    	try
-                    	{
-                    		sanitized = (SimGridCell)(simgrid[i][j].clone());
-                    	}
-                    	catch(CloneNotSupportedException e)
-                    	{
-                    		throw new RuntimeException("Problem in sanitizeGrid() clone attempt.  This is not the student's fault.");
-                    	}
-                         if(sanitized.contents==Robot.GridObject.SELF)
-                              if(sanitized.occupant_data.player.equals(player))
-                                   sanitized.contents=Robot.GridObject.ALLY;
-                              else
-                                   sanitized.contents=Robot.GridObject.ENEMY;
-                         sanitized.occupant_data=null;
-                         sanitized.wallforthealth=0;
-                         to_return[i][j] = sanitized;
-                    }
-
-               return to_return;
+               Robot.GridCell sanitized = new Robot.GridCell();
+               sanitized.x_coord = x;
+               sanitized.y_coord = y;
+               sanitized.contents = arena.getContents(x,y);
+               if(sanitized.contents==Robot.GridObject.SELF)
+                    if(occupantOf(x,y).player.equals(player))
+                         sanitized.contents=Robot.GridObject.ALLY;
+                    else
+                         sanitized.contents=Robot.GridObject.ENEMY;
+               sanitized.fort_orientation = arena.getOrientation(x,y);
+               sanitized.capsule_power = arena.getCapsulePower(x,y);
+               return sanitized;
           }
 
      private static Robot.Robot_Specs checkSpecsValid(Robot.Robot_Specs proposed, String player, int skill_points) throws RoboSimExecutionException
@@ -184,22 +552,96 @@ public class RoboSim
       */
      public RoboSim(/*String[] combatants,*/ int initial_robots_per_combatant, int skill_points, int length, int width, int obstacles) throws RoboSimExecutionException
           {
-               //Create grid
-               worldGrid = new SimGridCell[length][];
-               for(int i=0; i<length; i++)
+               this(combatants,initial_robots_per_combatant,skill_points,length,width,obstacles,new SplittableRandom().nextLong());
+          }
+
+     /**
+      * Constructor for RoboSim with a given seed:<br>
+      * Two simulations with the same parameters and seed play out exactly
+      * alike, as long as the robots themselves behave the same way given
+      * the same inputs.
+      * @param combatants array of String objects containing the names of
+      *                   the Robot classes for each combatant
+      * @param initial_robots_per_combatant how many robots each team starts
+      *                                     out with
+      * @param skill_points skill points per combatant
+      * @param length length of arena
+      * @param width width of arena
+      * @param obstacles number of obstacles on battlefield
+      * @param seed_ seed for everything the simulator decides at random
+      */
+     public RoboSim(String[] combatants, int initial_robots_per_combatant, int skill_points, int length, int width, int obstacles, long seed_) throws RoboSimExecutionException
+          {
+               this(combatants,initial_robots_per_combatant,skill_points,obstacles,seed_,new ArenaGrid(length,width));
+          }
+
+     /**
+      * Constructor for RoboSim keeping the arena in a map file instead of
+      * on the heap:<br>
+      * The file is mapped into memory, so the arena can be far bigger than
+      * the heap and only the parts of it in use are read from disk.  If the
+      * file doesn't exist, it is created and the obstacles are generated
+      * into it as usual; the map stays in the file for later simulations.
+      * If it does exist, its map is used as it is, plus any obstacles
+      * asked for (pass 0 to play on a pre-generated map unchanged).  The
+      * file only ever holds the map as generated: the match itself, and
+      * obstacles added to an existing map, change this simulation's copy
+      * of it, not the file, so several simulations can share one map
+      * file.  A simulation with no combatants just generates the map.
+      * @param combatants array of String objects containing the names of
+      *                   the Robot classes for each combatant
+      * @param initial_robots_per_combatant how many robots each team starts
+      *                                     out with
+      * @param skill_points skill points per combatant
+      * @param length length of arena
+      * @param width width of arena
+      * @param obstacles number of obstacles to add to the battlefield
+      * @param seed_ seed for everything the simulator decides at random
+      * @param map_file file holding the arena
+      * @throws IOException if the file can't be mapped, or holds a map of
+      *                     another size
+      */
+     public RoboSim(String[] combatants, int initial_robots_per_combatant, int skill_points, int length, int width, int obstacles, long seed_, File map_file) throws RoboSimExecutionException, IOException
+          {
+               this(combatants,initial_robots_per_combatant,skill_points,obstacles,seed_,new ArenaGrid(length,width,new MappedArenaStorage(map_file,length,width)));
+          }
+
+     private RoboSim(String[] combatants, int initial_robots_per_combatant, int skill_points, int obstacles, long seed_, ArenaGrid arena_) throws RoboSimExecutionException
+          {
+               final int length = arena_.length, width = arena_.width;
+
+               //Random number generators
+               seed = seed_;
+               SplittableRandom root = new SplittableRandom(seed);
+               mapRandom = root.split();
+               spawnRandom = root.split();
+               combatRandom = root.split();
+
+               //Grid
+               arena = arena_;
+               journal = new ChangeJournal(length*width,JOURNAL_CAPACITY);
+               arena.setJournal(journal);
+               robotIndex = new RobotIndex(length,width);
+
+               //Robot table; id 0 stands for "no robot"
+               robots = new ArrayList<RobotData>();
+               robots.add(null);
+
+               //Add obstacles to battlefield
+               for(int i=0; i<obstacles; i++)
                {
-                    worldGrid[i] = new SimGridCell[width];
-                    for(int j=0; j<width; j++)
+                    int x_pos, y_pos;
+                    do
                     {
-                         worldGrid[i][j] = new SimGridCell();
-                         worldGrid[i][j].x_coord = i;
-                         worldGrid[i][j].y_coord = j;
-                         worldGrid[i][j].contents = Robot.GridObject.EMPTY;
-                    }
+                         x_pos = mapRandom.nextInt(length);
+                         y_pos = mapRandom.nextInt(width);
+                    } while(arena.getContents(x_pos,y_pos)!=Robot.GridObject.EMPTY);
+                    arena.setContents(x_pos,y_pos,Robot.GridObject.WALL);
+                    arena.setHealth(x_pos,y_pos,WALL_HEALTH);
                }
 
-               //Random number generator
-               generator = new Random();
+               //A new map file keeps the map as generated, and none of the match
+               arena.saveMap();
 
                //Initialize array to hold turn order
                turnOrder = new ArrayList<RobotData>(combatants.length*initial_robots_per_combatant);
@@ -210,6 +652,7 @@ public class RoboSim
                //Add robots for each combatant
                for(String player : combatants)
                {
+                    teamOf(player);
                     Constructor gen_robot;
                     try
                     {
@@ -228,13 +671,11 @@ public class RoboSim
                          int x_pos,y_pos;
                          do
                          {
-                              x_pos = generator.nextInt(length);
-                              y_pos = generator.nextInt(width);
-                         } while(worldGrid[x_pos][y_pos].contents!=Robot.GridObject.EMPTY);
+                              x_pos = spawnRandom.nextInt(length);
+                              y_pos = spawnRandom.nextInt(width);
+                         } while(arena.getContents(x_pos,y_pos)!=Robot.GridObject.EMPTY);
 
-                         worldGrid[x_pos][y_pos].contents = Robot.GridObject.SELF;
-                         RobotData data = worldGrid[x_pos][y_pos].occupant_data = new RobotData();
-                         data.assoc_cell = worldGrid[x_pos][y_pos];
+                         RobotData data = placeRobot(x_pos,y_pos,player);
                          try
                          {
                         	 data.robot = (Robot)(gen_robot.newInstance());
@@ -243,7 +684,6 @@ public class RoboSim
                          {
                         	 throw new RoboSimExecutionException("something went wrong invoking studen'ts constructor", player);
                          }
-                         data.player = player;
                          byte[] creation_message = new byte[64];
                          creation_message[1] = (byte)(turnOrder_pos % 256);
                          creation_message[0] = (byte)(turnOrder_pos / 256);
@@ -251,22 +691,10 @@ public class RoboSim
                          data.status = new Robot.Robot_Status();
                          data.status.charge = data.status.health = data.specs.charge*10;
                          data.buffered_radio = new ArrayList<byte[]>();
+                         data.slot = turnOrder.size();
                          turnOrder.add(data);
                     }
                }
-
-               //Add obstacles to battlefield
-               for(int i=0; i<obstacles; i++)
-               {
-                    int x_pos, y_pos;
-                    do
-                    {
-                         x_pos = generator.nextInt(length);
-                         y_pos = generator.nextInt(width);
-                    } while(worldGrid[x_pos][y_pos].contents!=Robot.GridObject.EMPTY);
-                    worldGrid[x_pos][y_pos].contents = Robot.GridObject.WALL;
-                    worldGrid[x_pos][y_pos].wallforthealth = WALL_HEALTH;
-               }
           }
 
      /**
@@ -296,10 +724,10 @@ public class RoboSim
            */
           private boolean isAdjacent(Robot.GridCell adjacent_cell)
                {
-                    return (Math.abs(actingRobot.assoc_cell.x_coord-adjacent_cell.x_coord)==1 &&
-                              actingRobot.assoc_cell.y_coord == adjacent_cell.y_coord ||
-                            Math.abs(actingRobot.assoc_cell.y_coord-adjacent_cell.y_coord)==1 &&
-                              actingRobot.assoc_cell.x_coord == adjacent_cell.x_coord);
+                    return (Math.abs(actingRobot.x-adjacent_cell.x_coord)==1 &&
+                              actingRobot.y == adjacent_cell.y_coord ||
+                            Math.abs(actingRobot.y-adjacent_cell.y_coord)==1 &&
+                              actingRobot.x == adjacent_cell.x_coord);
                }
 
           /**
@@ -310,27 +738,31 @@ public class RoboSim
            */
           private boolean calculateHit(int attack, int defense)
                {
-                    int luckOfAttacker = generator.nextInt(10);
+                    int luckOfAttacker = combatRandom.nextInt(10);
                     return luckOfAttacker+attack-defense>=5;
                }
 
           /**
            * Process attack, assigning damage and deleting destroyed objects if necessary.
            * @param attack attack skill of attacker (including bonuses/penalties)
-           * @param cell_to_attack cell attacker is attacking containing enemy or obstacle
+           * @param x x coordinate of cell attacker is attacking containing enemy or obstacle
+           * @param y y coordinate of that cell
            * @param damage damage if attack hits
            */
-          private Robot.AttackResult processAttack(int attack, SimGridCell cell_to_attack, int power) throws RoboSimExecutionException
+          private Robot.AttackResult processAttack(int attack, int x, int y, int power) throws RoboSimExecutionException
                {
                     //Holds result of attack
                     Robot.AttackResult to_return = Robot.AttackResult.MISSED;
 
+                    //Robot being attacked, if any
+                    RobotData occupant = occupantOf(x,y);
+
                     //Calculate defense skill of opponent
                     int defense = 0;
-                    switch(cell_to_attack.contents)
+                    switch(arena.getContents(x,y))
                     {
                     case SELF:
-                         defense = cell_to_attack.occupant_data.specs.defense + cell_to_attack.occupant_data.status.defense_boost;
+                         defense = occupant.specs.defense + occupant.status.defense_boost;
                          break;
 
                     case FORT:
@@ -346,41 +778,31 @@ public class RoboSim
                          //We hit
                          to_return = Robot.AttackResult.HIT;
 
-                         if(cell_to_attack.occupant_data!=null)
+                         if(occupant!=null)
                          {
                               //we're a robot
-                              for(int i=0; true; i++)
-                                        if(turnOrder.get(i)==cell_to_attack.occupant_data)
-                                        {
-                                             if((cell_to_attack.occupant_data.status.health-=power)<=0)
-                                             {
-                                                  //We destroyed the opponent!
-                                                  to_return = Robot.AttackResult.DESTROYED_TARGET;
-
-                                                  //Handle in-progress build, reusing setBuildTarget() to handle interruption of build due to death
-                                                  (new RoboAPIImplementor(cell_to_attack.occupant_data)).setBuildTarget(null,null);
-
-                                                  //Handle cell
-                                                  cell_to_attack.occupant_data = null;
-                                                  cell_to_attack.contents = cell_to_attack.wallforthealth>0 ? Robot.GridObject.FORT : Robot.GridObject.EMPTY;
-
-                                                  //Handle turnOrder position
-                                                  turnOrder.remove(i);
-                                                  if(i<turnOrder_pos)
-                                                       turnOrder_pos--;
-                                             }
-                                             break;
-                                        }
+                              if((occupant.status.health-=power)<=0)
+                              {
+                                   //We destroyed the opponent!
+                                   to_return = Robot.AttackResult.DESTROYED_TARGET;
+                                   removeRobot(occupant);
+                              }
                          }
                          else
-                              if((cell_to_attack.wallforthealth-=power)<=0)
+                         {
+                              final int health = arena.getHealth(x,y) - power;
+                              if(health<=0)
                               {
                                    //We destroyed the target!
                                    to_return = Robot.AttackResult.DESTROYED_TARGET;
 
-                                   cell_to_attack.wallforthealth = 0;
-                                   cell_to_attack.contents = Robot.GridObject.EMPTY;
+                                   arena.setHealth(x,y,0);
+                                   arena.setContents(x,y,Robot.GridObject.EMPTY);
+                                   terrainChanged(x,y);
                               }
+                              else
+                                   arena.setHealth(x,y,health);
+                         }
                     }
 
                     return to_return;
@@ -394,34 +816,34 @@ public class RoboSim
 
                     //Check that we're using a valid amount of power
                     if(power > actingRobot.status.power || power > actingRobot.specs.attack || power < 1)
-                         throw new RoboSimExecutionException("attempted melee attack with illegal power level",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted melee attack with illegal power level",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Are cells adjacent?
                     if(!isAdjacent(adjacent_cell))
-                         throw new RoboSimExecutionException("attempted to melee attack nonadjacent cell",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to melee attack nonadjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Does cell exist in grid?
                     //(could put this in isAdjacent() method but want to give students more useful error messages)
-                    if(adjacent_cell.x_coord > worldGrid.length || adjacent_cell.y_coord > worldGrid[0].length ||
-                       adjacent_cell.x_coord < 0 || adjacent_cell.y_coord < 0)
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to meleeAttack()",actingRobot.player,actingRobot.assoc_cell,adjacent_cell);
+                    if(!arena.contains(adjacent_cell.x_coord,adjacent_cell.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to meleeAttack()",actingRobot.player,actingRobot.x,actingRobot.y,adjacent_cell.x_coord,adjacent_cell.y_coord);
 
                     //Safe to use this now, checked for oob condition from student
-                    SimGridCell cell_to_attack = worldGrid[adjacent_cell.x_coord][adjacent_cell.y_coord];
+                    final int x = adjacent_cell.x_coord, y = adjacent_cell.y_coord;
+                    RobotData occupant = occupantOf(x,y);
 
                     //Is there an enemy, fort, or wall at the cell's location?
-                    switch(cell_to_attack.contents)
+                    switch(arena.getContents(x,y))
                     {
                     case EMPTY:
-                         throw new RoboSimExecutionException("attempted to attack empty cell",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack empty cell",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case BLOCKED:
-                         throw new RoboSimExecutionException("attempted to attack blocked tile",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack blocked tile",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case SELF:
-                         if(cell_to_attack.occupant_data.player.equals(actingRobot.player))
-                              throw new RoboSimExecutionException("attempted to attack ally",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         if(occupantOf(x,y).player.equals(actingRobot.player))
+                              throw new RoboSimExecutionException("attempted to attack ally",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                          break;
                     case CAPSULE:
-                         throw new RoboSimExecutionException("attempted to attack energy capsule",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack energy capsule",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case ALLY:
                          throw new RuntimeException("ERROR in RoboSim.RoboAPIImplementor.meleeAttack().  This is probably not the student's fault.  Contact Patrick Simmons about this message.  (Not the Doobie Brother...)");
                     }
@@ -435,60 +857,63 @@ public class RoboSim
                     int raw_attack = actingRobot.specs.attack;
 
                     //If we're outside a fort attacking someone in the fort, range penalty applies
-                    if(cell_to_attack.wallforthealth > 0 && cell_to_attack.occupant_data!=null)
+                    if(arena.getHealth(x,y) > 0 && occupant!=null)
                          raw_attack/=2;
 
                     //Attack adds power of attack to raw skill
                     int attack = raw_attack + power;
 
                     //Process attack
-                    return processAttack(attack,cell_to_attack,power);
+                    return processAttack(attack,x,y,power);
                }
 
           public Robot.AttackResult rangedAttack(int power, Robot.GridCell nonadjacent_cell) throws RoboSimExecutionException
                {
                     //Lots of error checking here (as everywhere...)
                     if(nonadjacent_cell==null)
-                         throw new RoboSimExecutionException("passed null as argument to rangedAttack()",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("passed null as argument to rangedAttack()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
 
                     //Check that we're using a valid amount of power
                     if(power > actingRobot.status.power || power > actingRobot.specs.attack || power < 1)
-                         throw new RoboSimExecutionException("attempted ranged attack with illegal power level",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted ranged attack with illegal power level",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Does cell exist in grid?
                     //(could put this in isAdjacent() method but want to give students more useful error messages)
-                    if(nonadjacent_cell.x_coord > worldGrid.length || nonadjacent_cell.y_coord > worldGrid[0].length ||
-                       nonadjacent_cell.x_coord < 0 || nonadjacent_cell.y_coord < 0)
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to rangedAttack()",actingRobot.player,actingRobot.assoc_cell,nonadjacent_cell);
+                    if(!arena.contains(nonadjacent_cell.x_coord,nonadjacent_cell.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to rangedAttack()",actingRobot.player,actingRobot.x,actingRobot.y,nonadjacent_cell.x_coord,nonadjacent_cell.y_coord);
 
                     //Are cells nonadjacent?
                     if(isAdjacent(nonadjacent_cell))
-                         throw new RoboSimExecutionException("attempted to range attack adjacent cell",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to range attack adjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Safe to use this now, checked for oob condition from student
-                    SimGridCell cell_to_attack = worldGrid[nonadjacent_cell.x_coord][nonadjacent_cell.y_coord];
+                    final int x = nonadjacent_cell.x_coord, y = nonadjacent_cell.y_coord;
+                    final int from = arena.index(actingRobot.x,actingRobot.y), to = arena.index(x,y);
 
-                    //Do we have a "clear shot"?
-                    Robot.GridCell[] shortest_path = Robot.RobotUtility.findShortestPath(actingRobot.assoc_cell,cell_to_attack,worldGrid);
-                    if(shortest_path==null) //we don't have a clear shot
-                         throw new RoboSimExecutionException("attempted to range attack cell with no clear path",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
-                    else if(shortest_path.length>actingRobot.specs.defense) //out of range
-                         throw new RoboSimExecutionException("attempted to range attack cell more than (defense) tiles away",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                    //Do we have a "clear shot" within (defense) tiles?
+                    if(PathEngine.get().boundedDistance(arena,from,to,actingRobot.specs.defense)==-1)
+                    {
+                         //Only a failed shot pays for an unbounded search, to pick the right error
+                         if(PathEngine.get().boundedDistance(arena,from,to,Integer.MAX_VALUE)==-1) //we don't have a clear shot
+                              throw new RoboSimExecutionException("attempted to range attack cell with no clear path",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
+                         else //out of range
+                              throw new RoboSimExecutionException("attempted to range attack cell more than (defense) tiles away",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
+                    }
 
                     //Is there an enemy, fort, or wall at the cell's location?
-                    switch(cell_to_attack.contents)
+                    switch(arena.getContents(x,y))
                     {
                     case EMPTY:
-                         throw new RoboSimExecutionException("attempted to attack empty cell",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack empty cell",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case BLOCKED:
-                         throw new RoboSimExecutionException("attempted to attack blocked tile",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack blocked tile",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case SELF:
-                         if(cell_to_attack.occupant_data.player.equals(actingRobot.player))
-                              throw new RoboSimExecutionException("attempted to attack ally",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         if(occupantOf(x,y).player.equals(actingRobot.player))
+                              throw new RoboSimExecutionException("attempted to attack ally",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                          break;
                     case CAPSULE:
-                         throw new RoboSimExecutionException("attempted to attack energy capsule",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack energy capsule",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case ALLY:
                          throw new RuntimeException("ERROR in RoboSim.RoboAPIImplementor.rangedAttack().  This is probably not the student's fault.  Contact Patrick Simmons about this message.  (Not the Doobie Brother...)");
                     }
@@ -505,54 +930,56 @@ public class RoboSim
                     int attack = raw_attack + power;
 
                     //Process attack
-                    return processAttack(attack,cell_to_attack,power);
+                    return processAttack(attack,x,y,power);
                }
 
           public Robot.AttackResult capsuleAttack(int power_of_capsule, Robot.GridCell cell) throws RoboSimExecutionException
                {
                     //Error checking, *sigh*...
                     if(cell==null)
-                         throw new RoboSimExecutionException("passed null to capsuleAttack()",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("passed null to capsuleAttack()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Does cell exist in grid?
-                    if(cell.x_coord > worldGrid.length || cell.y_coord > worldGrid[0].length || cell.x_coord < 0 || cell.y_coord < 0)
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to capsuleAttack()",actingRobot.player,actingRobot.assoc_cell,cell);
+                    if(!arena.contains(cell.x_coord,cell.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to capsuleAttack()",actingRobot.player,actingRobot.x,actingRobot.y,cell.x_coord,cell.y_coord);
 
                     //Cell to attack
-                    SimGridCell cell_to_attack = worldGrid[cell.x_coord][cell.y_coord];
+                    final int x = cell.x_coord, y = cell.y_coord;
+                    final int from = arena.index(actingRobot.x,actingRobot.y), to = arena.index(x,y);
 
                     //Do we have a capsule of this power rating?
                     int capsule_index = ArrayUtility.linearSearch(actingRobot.status.capsules,power_of_capsule);
 
                     if(capsule_index==-1)
-                         throw new RoboSimExecutionException("passed invalid power to capsuleAttack(): doesn't have capsule of power "+power_of_capsule,actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("passed invalid power to capsuleAttack(): doesn't have capsule of power "+power_of_capsule,actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Can we use this capsule? (attack + defense >= power)
                     if(actingRobot.specs.attack + actingRobot.specs.defense < power_of_capsule)
-                         throw new RoboSimExecutionException("attempted to use capsule of greater power than attack+defense",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to use capsule of greater power than attack+defense",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Can we hit the target?  Range is power of capsule + defense.
-                    Robot.GridCell[] shortest_path = Robot.RobotUtility.findShortestPath(actingRobot.assoc_cell,cell_to_attack,worldGrid);
-
-                    if(shortest_path==null)
-                         throw new RoboSimExecutionException("no clear shot to target",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
-
-                    if(shortest_path.length > power_of_capsule + actingRobot.specs.defense)
-                         throw new RoboSimExecutionException("target not in range",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                    if(PathEngine.get().boundedDistance(arena,from,to,power_of_capsule + actingRobot.specs.defense)==-1)
+                    {
+                         //Only a failed shot pays for an unbounded search, to pick the right error
+                         if(PathEngine.get().boundedDistance(arena,from,to,Integer.MAX_VALUE)==-1)
+                              throw new RoboSimExecutionException("no clear shot to target",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
+                         else
+                              throw new RoboSimExecutionException("target not in range",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
+                    }
 
                     //Is there an enemy, fort, or wall at the cell's location?
-                    switch(cell_to_attack.contents)
+                    switch(arena.getContents(x,y))
                     {
                     case EMPTY:
-                         throw new RoboSimExecutionException("attempted to attack empty cell",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack empty cell",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case BLOCKED:
-                         throw new RoboSimExecutionException("attempted to attack blocked tile",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack blocked tile",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case SELF:
-                         if(cell_to_attack.occupant_data.player.equals(actingRobot.player))
-                              throw new RoboSimExecutionException("attempted to attack ally",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         if(occupantOf(x,y).player.equals(actingRobot.player))
+                              throw new RoboSimExecutionException("attempted to attack ally",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                          break;
                     case CAPSULE:
-                         throw new RoboSimExecutionException("attempted to attack energy capsule",actingRobot.player,actingRobot.assoc_cell,cell_to_attack);
+                         throw new RoboSimExecutionException("attempted to attack energy capsule",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                     case ALLY:
                          throw new RuntimeException("ERROR in RoboSim.RoboAPIImplementor.capsuleAttack().  This is probably not the student's fault.  Contact Patrick Simmons about this message.  (Not the Doobie Brother...)");
                     }
@@ -576,14 +1003,14 @@ public class RoboSim
                     }
 
                     //Process attack
-                    return processAttack(actingRobot.specs.attack + power_of_capsule,cell_to_attack,(int)(Math.ceil(0.1 * power_of_capsule * actingRobot.specs.attack)));
+                    return processAttack(actingRobot.specs.attack + power_of_capsule,x,y,(int)(Math.ceil(0.1 * power_of_capsule * actingRobot.specs.attack)));
                }
 
           public void defend(int power) throws RoboSimExecutionException
                {
                     //Error checking
                     if(power < 0 || power > actingRobot.specs.defense || power > actingRobot.specs.power || power > actingRobot.status.charge)
-                         throw new RoboSimExecutionException("attemped to defend with negative power",actingRobot.player, actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attemped to defend with negative power",actingRobot.player, actingRobot.x, actingRobot.y, -1, -1);
 
                     //This one's easy
                     actingRobot.status.charge-=power;
@@ -595,9 +1022,9 @@ public class RoboSim
                     if(steps<1)
                          return;
 
-                    int x_coord = actingRobot.assoc_cell.x_coord;
+                    int x_coord = actingRobot.x;
                     final int actor_x = x_coord;
-                    int y_coord = actingRobot.assoc_cell.y_coord;
+                    int y_coord = actingRobot.y;
                     final int actor_y = y_coord;
                     switch(way)
                     {
@@ -616,47 +1043,58 @@ public class RoboSim
                     }
 
                     //Is our destination in the map?
-                    if(x_coord < 0 || x_coord > worldGrid.length || y_coord < 0 || y_coord > worldGrid[0].length)
-                         throw new RoboSimExecutionException("attempted to move out of bounds",actingRobot.player,actingRobot.assoc_cell);
+                    if(!arena.contains(x_coord,y_coord))
+                         throw new RoboSimExecutionException("attempted to move out of bounds",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Is our destination empty?
-                    if(worldGrid[x_coord][y_coord].contents!=Robot.GridObject.EMPTY && worldGrid[x_coord][y_coord].contents!=Robot.GridObject.FORT)
-                         throw new RoboSimExecutionException("attempted to move onto illegal cell",actingRobot.player,actingRobot.assoc_cell,worldGrid[x_coord][y_coord]);
+                    final Robot.GridObject destination = arena.getContents(x_coord,y_coord);
+                    if(destination!=Robot.GridObject.EMPTY && destination!=Robot.GridObject.FORT)
+                         throw new RoboSimExecutionException("attempted to move onto illegal cell",actingRobot.player,actingRobot.x,actingRobot.y,x_coord,y_coord);
 
                     //Are we approaching the fort from the right angle?
-                    if(worldGrid[x_coord][y_coord].contents==Robot.GridObject.FORT && worldGrid[x_coord][y_coord].fort_orientation!=way)
-                         throw new RoboSimExecutionException("attempted to move onto a fort from an illegal direction",actingRobot.player,actingRobot.assoc_cell,worldGrid[x_coord][y_coord]);
+                    if(destination==Robot.GridObject.FORT && arena.getOrientation(x_coord,y_coord)!=way)
+                         throw new RoboSimExecutionException("attempted to move onto a fort from an illegal direction",actingRobot.player,actingRobot.x,actingRobot.y,x_coord,y_coord);
 
-                    //Okay, now we have to make sure each step is empty
+                    //Okay, now we have to make sure each step is empty (reporting the first one that isn't)
                     final boolean x_left = x_coord<actor_x;
                     final boolean y_left = y_coord<actor_y;
                     if(x_coord!=actor_x)
                     {
-                         for(int i=(x_left ? actor_x-1 : actor_x+1); i!=x_coord; i=(x_left ? i-1 : i+1))
-                              if(worldGrid[i][y_coord].contents!=Robot.GridObject.EMPTY)
-                                   throw new RoboSimExecutionException("attempted to cross illegal cell",actingRobot.player,actingRobot.assoc_cell,worldGrid[i][y_coord]);
+                         final int row = y_coord*arena.length;
+                         final int i = x_left ? arena.blocked_by_row.previousSet(row+x_coord+1,row+actor_x)
+                                              : arena.blocked_by_row.nextSet(row+actor_x+1,row+x_coord);
+                         if(i!=-1)
+                              throw new RoboSimExecutionException("attempted to cross illegal cell",actingRobot.player,actingRobot.x,actingRobot.y,i-row,y_coord);
                     }
                     else
                     {
-                         for(int i=(y_left ? actor_y-1 : actor_y+1); i!=y_coord; i=(y_left ? i-1 : i+1))
-                              if(worldGrid[x_coord][i].contents!=Robot.GridObject.EMPTY)
-                                   throw new RoboSimExecutionException("attempted to cross illegal cell",actingRobot.player,actingRobot.assoc_cell,worldGrid[x_coord][i]);
+                         final int column = x_coord*arena.width;
+                         final int i = y_left ? arena.blocked.previousSet(column+y_coord+1,column+actor_y)
+                                              : arena.blocked.nextSet(column+actor_y+1,column+y_coord);
+                         if(i!=-1)
+                              throw new RoboSimExecutionException("attempted to cross illegal cell",actingRobot.player,actingRobot.x,actingRobot.y,x_coord,i-column);
                     }
 
                     //Okay, now: do we have enough power/charge?
                     if(steps > actingRobot.status.power)
-                         throw new RoboSimExecutionException("attempted to move too far (not enough power)",actingRobot.player,actingRobot.assoc_cell,worldGrid[x_coord][y_coord]);
+                         throw new RoboSimExecutionException("attempted to move too far (not enough power)",actingRobot.player,actingRobot.x,actingRobot.y,x_coord,y_coord);
 
                     //Account for power cost
                     actingRobot.status.power-=steps;
                     actingRobot.status.charge-=steps;
 
                     //Change position of robot.
-                    actingRobot.assoc_cell.contents = Robot.GridObject.EMPTY;
-                    actingRobot.assoc_cell.occupant_data = null;
-                    actingRobot.assoc_cell = worldGrid[x_coord][y_coord];
-                    actingRobot.assoc_cell.contents = Robot.GridObject.SELF;
-                    actingRobot.assoc_cell.occupant_data = actingRobot;
+                    arena.setContents(actor_x,actor_y,Robot.GridObject.EMPTY);
+                    arena.setOccupant(actor_x,actor_y,0);
+                    terrainChanged(actor_x,actor_y);
+                    actingRobot.x = x_coord;
+                    actingRobot.y = y_coord;
+                    robotIndex.move(actingRobot.id,x_coord,y_coord);
+                    actingRobot.team.cells.set(arena.index(actor_x,actor_y),false);
+                    actingRobot.team.cells.set(arena.index(x_coord,y_coord),true);
+                    arena.setContents(x_coord,y_coord,Robot.GridObject.SELF);
+                    arena.setOccupant(x_coord,y_coord,actingRobot.id);
+                    terrainChanged(x_coord,y_coord);
                }
 
           public void pick_up_capsule(Robot.GridCell adjacent_cell) throws RoboSimExecutionException
@@ -664,30 +1102,30 @@ public class RoboSim
                     //Error checking, *sigh*...
                     //Can't pass us null
                     if(adjacent_cell==null)
-                         throw new RoboSimExecutionException("passed null to pick_up_capsule()",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("passed null to pick_up_capsule()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Does cell exist in grid?
-                    if(adjacent_cell.x_coord > worldGrid.length || adjacent_cell.y_coord > worldGrid[0].length || adjacent_cell.x_coord < 0 || adjacent_cell.y_coord < 0)
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to pick_up_capsule()",actingRobot.player,actingRobot.assoc_cell,adjacent_cell);
+                    if(!arena.contains(adjacent_cell.x_coord,adjacent_cell.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to pick_up_capsule()",actingRobot.player,actingRobot.x,actingRobot.y,adjacent_cell.x_coord,adjacent_cell.y_coord);
 
                     //Cell in question
-                    SimGridCell gridCell = worldGrid[adjacent_cell.x_coord][adjacent_cell.y_coord];
+                    final int x = adjacent_cell.x_coord, y = adjacent_cell.y_coord;
 
                     //Cell must be adjacent
                     if(!isAdjacent(adjacent_cell))
-                         throw new RoboSimExecutionException("attempted to pick up capsule in nonadjacent cell",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                         throw new RoboSimExecutionException("attempted to pick up capsule in nonadjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //We need at least one power.
                     if(actingRobot.status.power==0)
-                         throw new RoboSimExecutionException("attempted to pick up capsule with no power",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                         throw new RoboSimExecutionException("attempted to pick up capsule with no power",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //Is there actually a capsule there?
-                    if(gridCell.contents!=Robot.GridObject.CAPSULE)
-                         throw new RoboSimExecutionException("attempted to pick up capsule from cell with no capsule",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                    if(arena.getContents(x,y)!=Robot.GridObject.CAPSULE)
+                         throw new RoboSimExecutionException("attempted to pick up capsule from cell with no capsule",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //Do we have "room" for this capsule?
                     if(actingRobot.status.capsules.length+1>actingRobot.specs.attack+actingRobot.specs.defense)
-                         throw new RoboSimExecutionException("attempted to pick up too many capsules",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                         throw new RoboSimExecutionException("attempted to pick up too many capsules",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //If still here, yes.
 
@@ -695,9 +1133,9 @@ public class RoboSim
                     actingRobot.status.power--;
 
                     //Put capsule in our inventory, delete it from world
-                    actingRobot.status.capsules = ArrayUtility.addElement(actingRobot.status.capsules,gridCell.capsule_power);
-                    gridCell.contents = Robot.GridObject.EMPTY;
-                    gridCell.capsule_power = 0;
+                    actingRobot.status.capsules = ArrayUtility.addElement(actingRobot.status.capsules,arena.getCapsulePower(x,y));
+                    arena.setContents(x,y,Robot.GridObject.EMPTY);
+                    arena.setCapsulePower(x,y,0);
                }
 
      public void drop_capsule(Robot.GridCell adjacent_cell, int power_of_capsule) throws RoboSimExecutionException
@@ -705,31 +1143,31 @@ public class RoboSim
                     //Error checking, *sigh*...
                     //Can't pass us null
                     if(adjacent_cell==null)
-                         throw new RoboSimExecutionException("passed null to pick_up_capsule()",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("passed null to pick_up_capsule()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Does cell exist in grid?
-                    if(adjacent_cell.x_coord > worldGrid.length || adjacent_cell.y_coord > worldGrid[0].length || adjacent_cell.x_coord < 0 || adjacent_cell.y_coord < 0)
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to pick_up_capsule()",actingRobot.player,actingRobot.assoc_cell,adjacent_cell);
+                    if(!arena.contains(adjacent_cell.x_coord,adjacent_cell.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to pick_up_capsule()",actingRobot.player,actingRobot.x,actingRobot.y,adjacent_cell.x_coord,adjacent_cell.y_coord);
 
                     //Cell in question
-                    SimGridCell gridCell = worldGrid[adjacent_cell.x_coord][adjacent_cell.y_coord];
+                    final int x = adjacent_cell.x_coord, y = adjacent_cell.y_coord;
 
                     //Cell must be adjacent
                     if(!isAdjacent(adjacent_cell))
-                         throw new RoboSimExecutionException("attempted to pick up capsule in nonadjacent cell",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                         throw new RoboSimExecutionException("attempted to pick up capsule in nonadjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //Is the cell empty?
-                    if(gridCell.contents!=Robot.GridObject.EMPTY)
-                         throw new RoboSimExecutionException("attempted to place capsule in nonempty cell",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                    if(arena.getContents(x,y)!=Robot.GridObject.EMPTY)
+                         throw new RoboSimExecutionException("attempted to place capsule in nonempty cell",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //Do we have such a capsule?
                     int index = ArrayUtility.linearSearch(actingRobot.status.capsules,power_of_capsule);
                     if(index==-1)
-                         throw new RoboSimExecutionException("attempted to drop capsule with power "+power_of_capsule+", having no such capsule",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                         throw new RoboSimExecutionException("attempted to drop capsule with power "+power_of_capsule+", having no such capsule",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                     //Okay.  We're good.  Drop the capsule
-                    gridCell.contents = Robot.GridObject.CAPSULE;
-                    gridCell.capsule_power = power_of_capsule;
+                    arena.setContents(x,y,Robot.GridObject.CAPSULE);
+                    arena.setCapsulePower(x,y,power_of_capsule);
 
                     //Delete it from our inventory
                     ArrayUtility.deleteElement(actingRobot.status.capsules,index);
@@ -742,7 +1180,9 @@ public class RoboSim
 
           public Robot.GridCell getBuildTarget()
                {
-                    return actingRobot.invested_assoc_cell;
+                    if(actingRobot.build_x==-1)
+                         return null;
+                    return sanitizeCell(actingRobot.build_x,actingRobot.build_y,actingRobot.player);
                }
 
           public int getInvestedBuildPower()
@@ -756,27 +1196,29 @@ public class RoboSim
                     if(actingRobot.whatBuilding==null)
                          return;
 
+                    final int x = actingRobot.build_x, y = actingRobot.build_y;
+
                     //What do we have to finalize?
                     switch(actingRobot.whatBuilding)
                     {
                     case WALL:
                          if(actingRobot.investedPower >= 50)
                          {
-                              actingRobot.invested_assoc_cell.contents = Robot.GridObject.WALL;
-                              actingRobot.invested_assoc_cell.wallforthealth = WALL_HEALTH;
+                              arena.setContents(x,y,Robot.GridObject.WALL);
+                              arena.setHealth(x,y,WALL_HEALTH);
                          }
                          else
-                              actingRobot.invested_assoc_cell.contents = Robot.GridObject.EMPTY;
+                              arena.setContents(x,y,Robot.GridObject.EMPTY);
                          break;
 
                     case FORT:
                          if(actingRobot.investedPower >= 75)
                          {
-                              actingRobot.invested_assoc_cell.contents = Robot.GridObject.FORT;
-                              actingRobot.invested_assoc_cell.wallforthealth = WALL_HEALTH;
+                              arena.setContents(x,y,Robot.GridObject.FORT);
+                              arena.setHealth(x,y,WALL_HEALTH);
                          }
                          else
-                              actingRobot.invested_assoc_cell.contents = Robot.GridObject.EMPTY;
+                              arena.setContents(x,y,Robot.GridObject.EMPTY);
                          break;
 
                     case CAPSULE:
@@ -784,7 +1226,7 @@ public class RoboSim
                          if(capsule_power!=0)
                          {
                               if(actingRobot.status.capsules.length+1>actingRobot.specs.attack+actingRobot.specs.defense)
-                                   throw new RoboSimExecutionException("attempted to finish building capsule when already at max capsule capacity",actingRobot.player,actingRobot.assoc_cell);
+                                   throw new RoboSimExecutionException("attempted to finish building capsule when already at max capsule capacity",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
                               actingRobot.status.capsules = ArrayUtility.addElement(actingRobot.status.capsules,capsule_power);
                          }
                          break;
@@ -795,39 +1237,42 @@ public class RoboSim
                          {
                               //Check creation message correct size
                               if(creation_message!=null && creation_message.length!=64)
-                                   throw new RoboSimExecutionException("passed incorrect sized creation message to setBuildTarget()",actingRobot.player,actingRobot.assoc_cell,actingRobot.invested_assoc_cell);
+                                   throw new RoboSimExecutionException("passed incorrect sized creation message to setBuildTarget()",actingRobot.player,actingRobot.x,actingRobot.y,x,y);
 
                               //Set default creation message if we don't have one
                               if(creation_message==null)
                               {
                                    creation_message = new byte[64];
-                                   creation_message[1] = (byte)(turnOrder.size() % 256);
-                                   creation_message[0] = (byte)(turnOrder.size() / 256);
+                                   final int slot = turnOrder.size() - tombstones + pendingSpawns.size();
+                                   creation_message[1] = (byte)(slot % 256);
+                                   creation_message[0] = (byte)(slot / 256);
                               }
 
                               //Create the robot
-                              actingRobot.invested_assoc_cell.contents = Robot.GridObject.SELF;
-                              RobotData data = actingRobot.invested_assoc_cell.occupant_data = new RobotData();
-                              data.assoc_cell = actingRobot.invested_assoc_cell;
+                              RobotData data = placeRobot(x,y,actingRobot.player);
                               try
                               {
                             	  data.robot = (Robot)(Class.forName(actingRobot.player).getConstructor().newInstance());
                               }
                               catch(Exception e)
                               {
-                            	  throw new RoboSimExecutionException("something went wrong calling student's constructor", actingRobot.player,actingRobot.assoc_cell, actingRobot.invested_assoc_cell);
+                            	  throw new RoboSimExecutionException("something went wrong calling student's constructor", actingRobot.player,actingRobot.x,actingRobot.y,x,y);
                               }
-                              data.player = actingRobot.player;
                               data.specs = checkSpecsValid(data.robot.createRobot(null, skill_points, creation_message), actingRobot.player, skill_points);
                               data.status = new Robot.Robot_Status();
                               data.status.charge = data.status.health = data.specs.power*10;
                               data.buffered_radio = new ArrayList<byte[]>();
-                              turnOrder.add(data);
+
+                              //Gets its first turn next turn
+                              pendingSpawns.add(data);
                          }
                          else
-                              actingRobot.invested_assoc_cell.contents = Robot.GridObject.EMPTY;
+                              arena.setContents(x,y,Robot.GridObject.EMPTY);
                          break;                              
                     }
+
+                    if(x!=-1)
+                         terrainChanged(x,y);
                }
 
           public void setBuildTarget(Robot.BuildStatus status, Robot.GridCell location) throws RoboSimExecutionException
@@ -844,46 +1289,45 @@ public class RoboSim
                     //Error checking, *sigh*...
 
                     //Does cell exist in grid?
-                    if(location!=null && (location.x_coord > worldGrid.length || location.y_coord > worldGrid[0].length || location.x_coord < 0 || location.y_coord < 0))
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to setBuildTarget()",actingRobot.player,actingRobot.assoc_cell,location);
-
-                    //Cell in question
-                    SimGridCell gridCell = (location!=null ? worldGrid[location.x_coord][location.y_coord] : null);
+                    if(location!=null && !arena.contains(location.x_coord,location.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to setBuildTarget()",actingRobot.player,actingRobot.x,actingRobot.y,location.x_coord,location.y_coord);
 
                     //Update status
                     actingRobot.whatBuilding = status;
                     actingRobot.investedPower = 0;                    
-                    actingRobot.invested_assoc_cell = gridCell;
+                    actingRobot.build_x = (location!=null ? location.x_coord : -1);
+                    actingRobot.build_y = (location!=null ? location.y_coord : -1);
 
                     //CAN pass us null, so special-case it
                     if(location==null)
                     {
                          //We must be building capsule, then.
                          if(actingRobot.whatBuilding!=null && actingRobot.whatBuilding!=Robot.BuildStatus.CAPSULE)
-                              throw new RoboSimExecutionException("passed null to setBuildTarget() location with non-null and non-capsule build target",actingRobot.player,actingRobot.assoc_cell);
+                              throw new RoboSimExecutionException("passed null to setBuildTarget() location with non-null and non-capsule build target",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
                          return;
                     }
 
                     //If location NOT null, must not be building capsule
                     if(status == null || status == Robot.BuildStatus.CAPSULE)
-                         throw new RoboSimExecutionException("attempted to target capsule or null building on non-null adjacent cell",actingRobot.player,actingRobot.assoc_cell,location);
+                         throw new RoboSimExecutionException("attempted to target capsule or null building on non-null adjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,location.x_coord,location.y_coord);
 
                     //Cell must be adjacent
                     if(!isAdjacent(location))
-                         throw new RoboSimExecutionException("attempted to set build target to nonadjacent cell",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                         throw new RoboSimExecutionException("attempted to set build target to nonadjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,location.x_coord,location.y_coord);
 
                     //Is the cell empty?
-                    if(gridCell.contents!=Robot.GridObject.EMPTY)
-                         throw new RoboSimExecutionException("attempted to set build target to nonempty cell",actingRobot.player,actingRobot.assoc_cell,gridCell);
+                    if(arena.getContents(location.x_coord,location.y_coord)!=Robot.GridObject.EMPTY)
+                         throw new RoboSimExecutionException("attempted to set build target to nonempty cell",actingRobot.player,actingRobot.x,actingRobot.y,location.x_coord,location.y_coord);
 
                     //Okay, block off cell since we're building there now.
-                    gridCell.contents = Robot.GridObject.BLOCKED;
+                    arena.setContents(location.x_coord,location.y_coord,Robot.GridObject.BLOCKED);
+                    terrainChanged(location.x_coord,location.y_coord);
                }
 
           public void build(int power) throws RoboSimExecutionException
                {
                     if(power > actingRobot.status.power || power < 0)
-                         throw new RoboSimExecutionException("attempted to apply invalid power to build task",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to apply invalid power to build task",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
                     actingRobot.status.charge-=power;
                     actingRobot.status.power-=power;
                     actingRobot.investedPower+=power;
@@ -892,7 +1336,7 @@ public class RoboSim
           public void repair(int power) throws RoboSimExecutionException
                {
                     if(power > actingRobot.status.power || power < 0)
-                         throw new RoboSimExecutionException("attempted to apply invalid power to repair task",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to apply invalid power to repair task",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
                     actingRobot.status.charge-=power;
                     actingRobot.status.power-=power;
                     actingRobot.status.health+=power/2;
@@ -910,54 +1354,54 @@ public class RoboSim
 
                     //Check that we're using a valid amount of power
                     if(power > actingRobot.status.power || power < 1)
-                         throw new RoboSimExecutionException("attempted charge with illegal power level",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted charge with illegal power level",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Are cells adjacent?
                     if(!isAdjacent(ally))
-                         throw new RoboSimExecutionException("attempted to charge nonadjacent cell",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to charge nonadjacent cell",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     //Does cell exist in grid?
                     //(could put this in isAdjacent() method but want to give students more useful error messages)
-                    if(ally.x_coord > worldGrid.length || ally.y_coord > worldGrid[0].length || ally.x_coord < 0 || ally.y_coord < 0)
-                         throw new RoboSimExecutionException("passed invalid cell coordinates to charge()",actingRobot.player,actingRobot.assoc_cell,ally);
+                    if(!arena.contains(ally.x_coord,ally.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell coordinates to charge()",actingRobot.player,actingRobot.x,actingRobot.y,ally.x_coord,ally.y_coord);
 
                     //Safe to use this now, checked for oob condition from student
-                    SimGridCell allied_cell = worldGrid[ally.x_coord][ally.y_coord];
+                    RobotData allied_robot = occupantOf(ally.x_coord,ally.y_coord);
 
                     //Is there an ally in that cell?
-                    if(allied_cell.contents!=Robot.GridObject.SELF || !allied_cell.occupant_data.player.equals(actingRobot.player))
-                         throw new RoboSimExecutionException("attempted to charge non-ally, or cell with no robot in it",actingRobot.player,actingRobot.assoc_cell,allied_cell);
+                    if(allied_robot==null || !allied_robot.player.equals(actingRobot.player))
+                         throw new RoboSimExecutionException("attempted to charge non-ally, or cell with no robot in it",actingRobot.player,actingRobot.x,actingRobot.y,ally.x_coord,ally.y_coord);
 
                     //Perform the charge
                     actingRobot.status.power-=power;
                     actingRobot.status.charge-=power;
-                    allied_cell.occupant_data.status.charge+=power;
+                    allied_robot.status.charge+=power;
                }
 
           public void sendMessage(byte[] message, int power) throws RoboSimExecutionException
                {
                     if(power < 1 || power > 2)
-                         throw new RoboSimExecutionException("attempted to send message with invalid power", actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to send message with invalid power", actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
                     if(message.length!=64)
-                         throw new RoboSimExecutionException("attempted to send message byte array of incorrect length", actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("attempted to send message byte array of incorrect length", actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
-                    Robot.GridCell target = null;
                     if(power==1)
                     {
-                         target = Robot.RobotUtility.findNearestAlly(actingRobot.assoc_cell,worldGrid);
-                         if(target!=null)
+                         //Nearest ally, counting steps the way findNearestAlly() does
+                         final int target = robotIndex.nearest(actingRobot.x,actingRobot.y,actingRobot.team.id,false,actingRobot.id);
+                         if(target!=0)
                          {
                               /*There's a way to "cheat" here and set up a power-free comm channel
                                *between two allied robots.  If you can find it ... let me know, and
                                *you'll get extra credit :).  Additional credit for a bugfix.*/
-                              ((SimGridCell)(target)).occupant_data.buffered_radio.add(message);
+                              robots.get(target).buffered_radio.add(message);
                          }
                          return;
                     }
                     else //power==2
-                         for(RobotData x : turnOrder)
-                              if(x!=actingRobot && x.player.equals(actingRobot.player))
+                         for(RobotData x : actingRobot.team.members)
+                              if(x!=actingRobot)
                                    x.buffered_radio.add(message);
                }
 
@@ -966,106 +1410,965 @@ public class RoboSim
                {
                     //YAY!  No parameters means NO ERROR CHECKING!  YAY!
                     final int range = actingRobot.specs.defense;
-                    final int xloc = actingRobot.assoc_cell.x_coord;
-                    final int yloc = actingRobot.assoc_cell.y_coord;
+                    final int xloc = actingRobot.x;
+                    final int yloc = actingRobot.y;
                     final int x_left = (xloc - range < 0) ? 0 : (xloc - range);
-                    final int x_right = (xloc + range > worldGrid.length-1) ? (worldGrid.length-1) : (xloc + range);
+                    final int x_right = (xloc + range > arena.length-1) ? (arena.length-1) : (xloc + range);
                     final int y_up = (yloc - range < 0) ? 0 : (yloc - range);
-                    final int y_down = (yloc + range > worldGrid[0].length - 1) ? (worldGrid[0].length-1) : (yloc + range);
-                    Robot.GridCell[][] to_return = sanitizeGrid(getSubGrid(x_left,y_up,x_right,y_down),actingRobot.player);
+                    final int y_down = (yloc + range > arena.width - 1) ? (arena.width-1) : (yloc + range);
+                    Robot.GridCell[][] to_return = getSubGrid(x_left,y_up,x_right,y_down,actingRobot.player);
 
                     //Set associated cell to SELF instead of ALLY
                     to_return[xloc - x_left][yloc - y_up].contents=Robot.GridObject.SELF;
                     return to_return;
                }
 
-          public Robot.GridCell[][] getWorld(int power) throws RoboSimExecutionException
+          public int getVisibleNeighborhood(byte[] contents, int[] details, int[] region) throws RoboSimExecutionException
+               {
+                    final int range = actingRobot.specs.defense;
+                    final int xloc = actingRobot.x;
+                    final int yloc = actingRobot.y;
+                    final int x_left = (xloc - range < 0) ? 0 : (xloc - range);
+                    final int x_right = (xloc + range > arena.length-1) ? (arena.length-1) : (xloc + range);
+                    final int y_up = (yloc - range < 0) ? 0 : (yloc - range);
+                    final int y_down = (yloc + range > arena.width - 1) ? (arena.width-1) : (yloc + range);
+                    final int cells = (x_right - x_left + 1) * (y_down - y_up + 1);
+                    if(contents==null || contents.length < cells || (details!=null && details.length < cells) || region==null || region.length < 4)
+                         throw new RoboSimExecutionException("tried to get visible neighborhood into buffers that are too small",actingRobot.player,xloc,yloc,-1,-1);
+
+                    return fillRegion(x_left,y_up,x_right,y_down,contents,details,region);
+               }
+
+          public int getWorld(byte[] contents, int[] details, int[] region, int power) throws RoboSimExecutionException
                {
                     if(power!=3)
-                         throw new RoboSimExecutionException("tried to get world with invalid power (not equal to 3)",actingRobot.player,actingRobot.assoc_cell);
+                         throw new RoboSimExecutionException("tried to get world with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+                    if(region==null || region.length < 4)
+                         throw new RoboSimExecutionException("tried to get world into a region buffer that is too small",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
-                    Robot.GridCell[][] to_return = sanitizeGrid(getSubGrid(0,0,worldGrid.length-1,worldGrid[0].length-1),actingRobot.player);
+                    if(contents==null || contents.length < arena.cells || (details!=null && details.length < arena.cells))
+                    {
+                         region[0] = region[1] = 0;
+                         region[2] = arena.length;
+                         region[3] = arena.width;
+                         return -1;
+                    }
+                    actingRobot.journal_mark = journal.position();
+                    return fillRegion(0,0,arena.length-1,arena.width-1,contents,details,region);
+               }
 
-                    //Set self to self instead of ally
-                    to_return[actingRobot.assoc_cell.x_coord][actingRobot.assoc_cell.y_coord].contents=Robot.GridObject.SELF;
-                    return to_return;
+          /**
+           * Writes the cells from (x_left,y_up) to (x_right,y_down) into
+           * buffers as the acting robot sees them, for the overloads of
+           * getVisibleNeighborhood() and getWorld() that take buffers.
+           * @return number of cells written
+           */
+          private int fillRegion(int x_left, int y_up, int x_right, int y_down, byte[] contents, int[] details, int[] region)
+               {
+                    final int xloc = actingRobot.x;
+                    final int yloc = actingRobot.y;
+                    region[0] = x_left;
+                    region[1] = y_up;
+                    region[2] = x_right - x_left + 1;
+                    region[3] = y_down - y_up + 1;
+
+                    //Read straight from the arena; robots are stored as SELF and need telling apart
+                    final byte self = (byte)(Robot.GridObject.SELF.ordinal());
+                    final byte ally = (byte)(Robot.GridObject.ALLY.ordinal());
+                    final byte enemy = (byte)(Robot.GridObject.ENEMY.ordinal());
+                    final byte capsule = (byte)(Robot.GridObject.CAPSULE.ordinal());
+                    final byte fort = (byte)(Robot.GridObject.FORT.ordinal());
+                    int n = 0;
+                    for(int x=x_left; x<=x_right; x++)
+                         for(int y=y_up; y<=y_down; y++, n++)
+                         {
+                              byte what = arena.contentsAt(arena.index(x,y));
+                              if(what==self && (x!=xloc || y!=yloc))
+                                   what = (occupantOf(x,y).team==actingRobot.team) ? ally : enemy;
+                              contents[n] = what;
+                              if(details!=null)
+                                   if(what==capsule)
+                                        details[n] = arena.getCapsulePower(x,y);
+                                   else if(what==fort)
+                                   {
+                                        Robot.Direction way = arena.getOrientation(x,y);
+                                        details[n] = (way==null) ? -1 : way.ordinal();
+                                   }
+                                   else
+                                        details[n] = 0;
+                         }
+                    return n;
                }
 
-          public void scanEnemy(Robot.Robot_Specs enemySpecs, Robot.Robot_Status enemyStatus, Robot.GridCell toScan) throws RoboSimExecutionException
+          public int countVisible(Robot.GridObject kind) throws RoboSimExecutionException
                {
-                    if(enemySpecs==null || enemyStatus==null || toScan==null
-                       || toScan.x_coord < 0 || toScan.x_coord >= worldGrid.length || toScan.y_coord < 0 || toScan.y_coord >= worldGrid[0].length || actingRobot.status.power==0)
-                         throw new RoboSimExecutionException("Invalid parameters passed to scanEnemy()",actingRobot.player,actingRobot.assoc_cell);
+                    if(kind==null)
+                         throw new RoboSimExecutionException("tried to count null kind of cell",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
-                    SimGridCell cell = worldGrid[toScan.x_coord][toScan.y_coord];
+                    final int range = actingRobot.specs.defense;
+                    final int xloc = actingRobot.x;
+                    final int yloc = actingRobot.y;
+                    final int x_left = (xloc - range < 0) ? 0 : (xloc - range);
+                    final int x_right = (xloc + range > arena.length-1) ? (arena.length-1) : (xloc + range);
+                    final int y_up = (yloc - range < 0) ? 0 : (yloc - range);
+                    final int y_down = (yloc + range > arena.width - 1) ? (arena.width-1) : (yloc + range);
+                    switch(kind)
+                    {
+                    case EMPTY:
+                         return (x_right-x_left+1)*(y_down-y_up+1) - arena.countInRect(arena.blocked,x_left,y_up,x_right,y_down);
+                    case SELF:
+                         return 1;
+                    case ALLY:
+                         return arena.countInRect(actingRobot.team.cells,x_left,y_up,x_right,y_down) - 1;
+                    case ENEMY:
+                         return arena.countInRect(arena.robots,x_left,y_up,x_right,y_down) - arena.countInRect(actingRobot.team.cells,x_left,y_up,x_right,y_down);
+                    case WALL:
+                         return arena.countInRect(arena.walls,x_left,y_up,x_right,y_down);
+                    case FORT:
+                         return arena.countInRect(arena.forts,x_left,y_up,x_right,y_down);
+                    case CAPSULE:
+                         return arena.countInRect(arena.capsules,x_left,y_up,x_right,y_down);
+                    default:
+                         return 0;
+                    }
+               }
 
-                    //Are we within range?
-                    if(Math.abs(actingRobot.assoc_cell.x_coord - cell.x_coord) > actingRobot.specs.defense || Math.abs(actingRobot.assoc_cell.y_coord - cell.y_coord) > actingRobot.specs.defense)
-                         throw new RoboSimExecutionException("attempted to scan farther than range", actingRobot.player, actingRobot.assoc_cell);
+          public Robot.GridCell[][] getWorld(int power) throws RoboSimExecutionException
+               {
+                    if(power!=3)
+                         throw new RoboSimExecutionException("tried to get world with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
-                    //Is there a robot in this cell?
-                    if(cell.contents != Robot.GridObject.SELF)
-                         throw new RoboSimExecutionException("attempted to scan invalid cell (no robot in cell)", actingRobot.player, actingRobot.assoc_cell, cell);
+                    Robot.GridCell[][] to_return = getSubGrid(0,0,arena.length-1,arena.width-1,actingRobot.player);
 
-                    //Register cost
-                    actingRobot.status.power--;
-                    actingRobot.status.charge--;
+                    //Set self to self instead of ally
+                    to_return[actingRobot.x][actingRobot.y].contents=Robot.GridObject.SELF;
+                    actingRobot.journal_mark = journal.position();
+                    return to_return;
+               }
 
-                    //Okay, we're good.  Fill in the data.
-                    enemySpecs.attack = cell.occupant_data.specs.attack;
-                    enemySpecs.defense = cell.occupant_data.specs.defense;
-                    enemySpecs.power = cell.occupant_data.specs.power;
-                    enemySpecs.charge = cell.occupant_data.specs.charge;
-                    enemyStatus.power = cell.occupant_data.status.power;
-                    enemyStatus.charge = cell.occupant_data.status.charge;
-                    enemyStatus.health = cell.occupant_data.status.health;
-                    enemyStatus.defense_boost = cell.occupant_data.status.defense_boost;
-                    enemyStatus.capsules = cell.occupant_data.status.capsules.clone();
+          public int getTurn()
+               {
+                    return turn;
                }
-     }
 
-     /**
-      * Executes one timestep of the simulation.
-      * @return the winner, if any, or null
-      */
-     public String executeSingleTimeStep() throws RoboSimExecutionException
-          {
-               for(turnOrder_pos=0; turnOrder_pos<turnOrder.size(); turnOrder_pos++)
+          public Robot.GridCell[] getChangedCells(int since_turn, int power) throws RoboSimExecutionException
                {
-                    //References to robot's data
-                    RobotData data = turnOrder.get(turnOrder_pos);
-                    WorldAPI student_api = new RoboAPIImplementor(data);
+                    if(power!=3)
+                         throw new RoboSimExecutionException("tried to get changed cells with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
-                    //Charge robot an amount of charge equal to charge skill
-                    data.status.charge = Math.min(data.status.charge + data.specs.charge, data.specs.charge*10);
+                    actingRobot.journal_mark = journal.position();
+                    return changedCells(journal.changedSinceTurn(Math.max(since_turn,0)));
+               }
+
+          public Robot.GridCell[] getChangedCells(int power) throws RoboSimExecutionException
+               {
+                    if(power!=3)
+                         throw new RoboSimExecutionException("tried to get changed cells with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
 
-                    /*We can spend up to status.power power this turn, but
-                     *no more than our current charge level*/
-                    data.status.power = Math.min(data.specs.power, data.status.charge);
+                    final long mark = actingRobot.journal_mark;
+                    actingRobot.journal_mark = journal.position();
+                    return mark==-1 ? null : changedCells(journal.changedSincePosition(mark));
+               }
 
-                    //Defense boost reset to zero at beginning of turn
-                    data.status.defense_boost = 0;
+          /**@return sanitized cells for the given arena indices (null for null), with our own cell as SELF*/
+          private Robot.GridCell[] changedCells(int[] changed)
+               {
+                    if(changed==null)
+                         return null;
 
-                    //Clone status for student
-                    Robot.Robot_Status clonedStatus;
-                    try
+                    final int own = arena.index(actingRobot.x,actingRobot.y);
+                    Robot.GridCell[] to_return = new Robot.GridCell[changed.length];
+                    for(int i=0; i<changed.length; i++)
                     {
-                    	clonedStatus = (Robot.Robot_Status)(data.status.clone());
+                         to_return[i] = sanitizeCell(changed[i]/arena.width,changed[i]%arena.width,actingRobot.player);
+                         if(changed[i]==own)
+                              to_return[i].contents = Robot.GridObject.SELF;
                     }
-                    catch(CloneNotSupportedException e)
+                    return to_return;
+               }
+
+          public DistanceField getDistanceField(Robot.GridObject target, int power) throws RoboSimExecutionException
+               {
+                    if(power!=3)
+                         throw new RoboSimExecutionException("tried to get distance field with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    //An ALLY field would be 0 at the asker's own cell, and it's shared team-wide, so it can't leave the asker out
+                    if(target==null || target==Robot.GridObject.EMPTY || target==Robot.GridObject.SELF || target==Robot.GridObject.ALLY)
+                         throw new RoboSimExecutionException("tried to get distance field toward invalid kind of cell",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    //Only ENEMY depends on who is asking
+                    String key = target.name();
+                    if(target==Robot.GridObject.ENEMY)
+                         key+=":"+actingRobot.player;
+                    return getCachedField(key,target,actingRobot.player,-1);
+               }
+
+          public DistanceField getDistanceField(Robot.GridCell rally, int power) throws RoboSimExecutionException
+               {
+                    if(power!=3)
+                         throw new RoboSimExecutionException("tried to get distance field with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    if(rally==null || !arena.contains(rally.x_coord,rally.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell to getDistanceField()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    return getCachedField("RALLY:"+rally.x_coord+","+rally.y_coord,null,null,arena.index(rally.x_coord,rally.y_coord));
+               }
+
+          public Robot.GridCell[] planRoute(Robot.GridCell target, int power) throws RoboSimExecutionException
+               {
+                    if(power!=3)
+                         throw new RoboSimExecutionException("tried to plan route with invalid power (not equal to 3)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    if(target==null || !arena.contains(target.x_coord,target.y_coord))
+                         throw new RoboSimExecutionException("passed invalid cell to planRoute()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    if(planner==null)
+                         planner = new HierarchicalPathfinder(arena);
+                    int[] route = planner.findRoute(actingRobot.x,actingRobot.y,target.x_coord,target.y_coord);
+                    if(route==null)
+                         return null;
+
+                    Robot.GridCell[] to_return = new Robot.GridCell[route.length];
+                    for(int i=0; i<route.length; i++)
+                         to_return[i] = sanitizeCell(route[i]/arena.width,route[i]%arena.width,actingRobot.player);
+                    return to_return;
+               }
+
+          public Robot.GridCell findNearestEnemy(int power) throws RoboSimExecutionException
+               {
+                    if(power!=1 || actingRobot.status.power < 1)
+                         throw new RoboSimExecutionException("tried to find nearest enemy with invalid power (not equal to 1)",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    actingRobot.status.power--;
+                    actingRobot.status.charge--;
+
+                    final int nearest = robotIndex.nearest(actingRobot.x,actingRobot.y,actingRobot.team.id,true,0);
+                    if(nearest==0)
+                         return null;
+                    RobotData enemy = robots.get(nearest);
+                    return sanitizeCell(enemy.x,enemy.y,actingRobot.player);
+               }
+
+          public void scanEnemy(Robot.Robot_Specs enemySpecs, Robot.Robot_Status enemyStatus, Robot.GridCell toScan) throws RoboSimExecutionException
+               {
+                    if(enemySpecs==null || enemyStatus==null || toScan==null
+                       || !arena.contains(toScan.x_coord,toScan.y_coord) || actingRobot.status.power==0)
+                         throw new RoboSimExecutionException("Invalid parameters passed to scanEnemy()",actingRobot.player,actingRobot.x,actingRobot.y,-1,-1);
+
+                    RobotData scanned = occupantOf(toScan.x_coord,toScan.y_coord);
+
+                    //Are we within range?
+                    if(Math.abs(actingRobot.x - toScan.x_coord) > actingRobot.specs.defense || Math.abs(actingRobot.y - toScan.y_coord) > actingRobot.specs.defense)
+                         throw new RoboSimExecutionException("attempted to scan farther than range", actingRobot.player, actingRobot.x, actingRobot.y, -1, -1);
+
+                    //Is there a robot in this cell?
+                    if(scanned==null)
+                         throw new RoboSimExecutionException("attempted to scan invalid cell (no robot in cell)", actingRobot.player, actingRobot.x, actingRobot.y, toScan.x_coord, toScan.y_coord);
+
+                    //Register cost
+                    actingRobot.status.power--;
+                    actingRobot.status.charge--;
+
+                    //Okay, we're good.  Fill in the data.
+                    enemySpecs.attack = scanned.specs.attack;
+                    enemySpecs.defense = scanned.specs.defense;
+                    enemySpecs.power = scanned.specs.power;
+                    enemySpecs.charge = scanned.specs.charge;
+                    enemyStatus.power = scanned.status.power;
+                    enemyStatus.charge = scanned.status.charge;
+                    enemyStatus.health = scanned.status.health;
+                    enemyStatus.defense_boost = scanned.status.defense_boost;
+                    enemyStatus.capsules = scanned.status.capsules.clone();
+               }
+     }
+
+     /**
+      * Recharges a robot at the start of its turn.
+      * @param data robot whose turn it is
+      * @return copy of its status to pass to act()
+      */
+     private static Robot.Robot_Status startTurn(RobotData data)
+          {
+               //Charge robot an amount of charge equal to charge skill
+               data.status.charge = Math.min(data.status.charge + data.specs.charge, data.specs.charge*10);
+
+               /*We can spend up to status.power power this turn, but
+                *no more than our current charge level*/
+               data.status.power = Math.min(data.specs.power, data.status.charge);
+
+               //Defense boost reset to zero at beginning of turn
+               data.status.defense_boost = 0;
+
+               //Clone status for student
+               try
+               {
+                    return (Robot.Robot_Status)(data.status.clone());
+               }
+               catch(CloneNotSupportedException e)
+               {
+                    throw new RuntimeException("error cloning in executeSingleTimeStep.  This is not the student's fault.");
+               }
+          }
+
+     /**
+      * Turns on simultaneous-turn mode:<br>
+      * Instead of acting one after another, all robots decide what to do
+      * at the same time, each in its own task on pool, while the world
+      * stands still.  Their actions are recorded, and once everyone has
+      * decided they are carried out in turn order.  An action that is no
+      * longer possible by then (say, moving into a cell another robot has
+      * just taken) is dropped, along with the rest of that robot's actions
+      * for the turn, and so are the actions of robots destroyed before
+      * their turn comes.<br>
+      * Results don't depend on pool or on how robots' decisions overlap in
+      * time, so seeded matches stay reproducible.<br>
+      * Under time limits (see setTimeLimits()), each robot decides on a
+      * thread of its own, and pool's tasks just watch them, at most one
+      * per pool thread at a time; a robot that never returns is abandoned
+      * on its thread and ties up none of pool's.
+      * @param pool where robots decide, or null to go back to one robot at
+      *             a time
+      */
+     public void setSimultaneousTurns(ExecutorService pool) { decisionPool = pool; }
+
+     /**Action recorded during a simultaneous turn, carried out afterward*/
+     private static abstract class Intent
+     {
+          abstract void apply(WorldAPI api) throws RoboSimExecutionException;
+     }
+
+     /**
+      * WorldAPI handed to robots during simultaneous turns.  Questions
+      * about the world are answered right away, one robot at a time;
+      * actions are only recorded.
+      */
+     private class IntentRecorder implements WorldAPI
+     {
+          private final RobotData actingRobot;
+          private final RoboAPIImplementor direct;
+          private final ArrayList<Intent> intents = new ArrayList<Intent>();
+
+          private IntentRecorder(RobotData actingRobot_)
+               {
+                    actingRobot = actingRobot_;
+                    direct = new RoboAPIImplementor(actingRobot_);
+               }
+
+          /**@return copy of the coordinates of cell, which the robot may change after we record it*/
+          private Robot.GridCell at(Robot.GridCell cell)
+               {
+                    if(cell==null)
+                         return null;
+                    Robot.GridCell to_return = new Robot.GridCell();
+                    to_return.x_coord = cell.x_coord;
+                    to_return.y_coord = cell.y_coord;
+                    return to_return;
+               }
+
+          public Robot.AttackResult meleeAttack(final int power, Robot.GridCell adjacent_cell)
+               {
+                    final Robot.GridCell cell = at(adjacent_cell);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.meleeAttack(power,cell); } });
+                    return null;
+               }
+
+          public Robot.AttackResult rangedAttack(final int power, Robot.GridCell nonadjacent_cell)
+               {
+                    final Robot.GridCell cell = at(nonadjacent_cell);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.rangedAttack(power,cell); } });
+                    return null;
+               }
+
+          public Robot.AttackResult capsuleAttack(final int power_of_capsule, Robot.GridCell target)
+               {
+                    final Robot.GridCell cell = at(target);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.capsuleAttack(power_of_capsule,cell); } });
+                    return null;
+               }
+
+          public void defend(final int power)
+               {
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.defend(power); } });
+               }
+
+          public void move(final int steps, final Robot.Direction way)
+               {
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.move(steps,way); } });
+               }
+
+          public void pick_up_capsule(Robot.GridCell adjacent_cell)
+               {
+                    final Robot.GridCell cell = at(adjacent_cell);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.pick_up_capsule(cell); } });
+               }
+
+          public void drop_capsule(Robot.GridCell adjacent_cell, final int power_of_capsule)
+               {
+                    final Robot.GridCell cell = at(adjacent_cell);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.drop_capsule(cell,power_of_capsule); } });
+               }
+
+          public Robot.BuildStatus getBuildStatus() { return direct.getBuildStatus(); }
+
+          public Robot.GridCell getBuildTarget()
+               {
+                    synchronized(RoboSim.this) { return direct.getBuildTarget(); }
+               }
+
+          public int getInvestedBuildPower() { return direct.getInvestedBuildPower(); }
+
+          public void setBuildTarget(final Robot.BuildStatus status, Robot.GridCell location)
+               {
+                    final Robot.GridCell cell = at(location);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.setBuildTarget(status,cell); } });
+               }
+
+          public void setBuildTarget(final Robot.BuildStatus status, Robot.GridCell location, byte[] creation_message)
+               {
+                    final Robot.GridCell cell = at(location);
+                    final byte[] message = (creation_message==null) ? null : creation_message.clone();
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.setBuildTarget(status,cell,message); } });
+               }
+
+          public void build(final int power)
+               {
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.build(power); } });
+               }
+
+          public void repair(final int power)
+               {
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.repair(power); } });
+               }
+
+          public void charge(final int power, Robot.GridCell ally)
+               {
+                    final Robot.GridCell cell = at(ally);
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.charge(power,cell); } });
+               }
+
+          public void sendMessage(byte[] message, final int power)
+               {
+                    final byte[] copy = (message==null) ? null : message.clone();
+                    intents.add(new Intent() { void apply(WorldAPI api) throws RoboSimExecutionException { api.sendMessage(copy,power); } });
+               }
+
+          public Robot.GridCell[][] getVisibleNeighborhood()
+               {
+                    synchronized(RoboSim.this) { return direct.getVisibleNeighborhood(); }
+               }
+
+          //Reads the arena and nothing else, which nobody changes while robots decide
+          public int getVisibleNeighborhood(byte[] contents, int[] details, int[] region) throws RoboSimExecutionException
+               {
+                    return direct.getVisibleNeighborhood(contents,details,region);
+               }
+
+          //Reads the arena's bitboards, which nobody changes while robots decide
+          public int countVisible(Robot.GridObject kind) throws RoboSimExecutionException
+               {
+                    return direct.countVisible(kind);
+               }
+
+          public Robot.GridCell[][] getWorld(int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.getWorld(power); }
+               }
+
+          //Reads the arena and the robot table, which nobody changes while robots decide
+          public int getWorld(byte[] contents, int[] details, int[] region, int power) throws RoboSimExecutionException
+               {
+                    return direct.getWorld(contents,details,region,power);
+               }
+
+          public int getTurn() { return direct.getTurn(); }
+
+          public Robot.GridCell[] getChangedCells(int since_turn, int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.getChangedCells(since_turn,power); }
+               }
+
+          public Robot.GridCell[] getChangedCells(int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.getChangedCells(power); }
+               }
+
+          public DistanceField getDistanceField(Robot.GridObject target, int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.getDistanceField(target,power); }
+               }
+
+          public DistanceField getDistanceField(Robot.GridCell rally, int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.getDistanceField(rally,power); }
+               }
+
+          public Robot.GridCell[] planRoute(Robot.GridCell target, int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.planRoute(target,power); }
+               }
+
+          public Robot.GridCell findNearestEnemy(int power) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this) { return direct.findNearestEnemy(power); }
+               }
+
+          public void scanEnemy(Robot.Robot_Specs enemySpecs, Robot.Robot_Status enemyStatus, Robot.GridCell toScan) throws RoboSimExecutionException
+               {
+                    synchronized(RoboSim.this)
                     {
-                    	throw new RuntimeException("error cloning in executeSingleTimeStep.  This is not the student's fault.");
+                         direct.scanEnemy(enemySpecs,enemyStatus,toScan);
+
+                         //Report power as of the start of the turn, not whatever the target has spent on questions so far
+                         RobotData scanned = occupantOf(toScan.x_coord,toScan.y_coord);
+                         enemyStatus.power = scanned.start_power;
+                         enemyStatus.charge = scanned.start_charge;
                     }
+               }
+     }
 
-                    //Run student code
-                    data.robot.act(student_api,clonedStatus,data.buffered_radio.toArray(new byte[0][]));
-                    data.buffered_radio.clear()
+     /**
+      * Executes one turn in simultaneous-turn mode: every robot decides in
+      * parallel, then the recorded actions are carried out in turn order.
+      */
+     private void executeSimultaneousTurns() throws RoboSimExecutionException
+          {
+               final RobotData[] deciding = turnOrder.toArray(new RobotData[0]);
+               final IntentRecorder[] recorders = new IntentRecorder[deciding.length];
+               final TimedAct[] acts = new TimedAct[deciding.length];
+               final boolean limited = wallLimit > 0 || cpuLimit > 0;
+               @SuppressWarnings("unchecked")
+               final Future<String>[] watches = new Future[deciding.length];
+               for(int i=0; i<deciding.length; i++)
+               {
+                    RobotData data = deciding[i];
+                    Robot.Robot_Status clonedStatus = startTurn(data);
+                    byte[][] radio = data.buffered_radio.toArray(new byte[0][]);
+                    data.buffered_radio.clear();
+                    data.start_power = data.status.power;
+                    data.start_charge = data.status.charge;
+                    recorders[i] = new IntentRecorder(data);
+                    final TimedAct act = acts[i] = new TimedAct(data,recorders[i],clonedStatus,radio);
+
+                    /*Under time limits, act() runs on a thread of its own and the pool
+                     *only watches it: a robot that never returns is abandoned there,
+                     *and can't keep the pool's threads from everyone else*/
+                    if(limited)
+                         watches[i] = decisionPool.submit(new Callable<String>() {
+                                   public String call() throws ExecutionException
+                                        {
+                                             act.start(ACT_THREADS);
+                                             return act.await();
+                                        }
+                              });
+                    else
+                         act.start(decisionPool);
                }
-               
-               String player = turnOrder.get(0).player;
-               for(int i=1; i<turnOrder.size(); i++)
-                    if(!turnOrder.get(i).player.equals(player))
+
+               //Wait for everyone, then report the first failure in turn order
+               Throwable failure = null;
+               String[] broken = new String[deciding.length];
+               for(int i=0; i<acts.length; i++)
+                    try
+                    {
+                         broken[i] = limited ? watches[i].get() : acts[i].await();
+                    }
+                    catch(ExecutionException e)
+                    {
+                         //A watch passes on the robot's failure wrapped once more
+                         Throwable cause = e.getCause();
+                         if(cause instanceof ExecutionException)
+                              cause = cause.getCause();
+                         if(failure==null)
+                              failure = cause;
+                    }
+                    catch(InterruptedException e)
+                    {
+                         Thread.currentThread().interrupt();
+                         throw new RuntimeException("interrupted while waiting for robots to act");
+                    }
+               if(failure!=null)
+                    rethrow(failure);
+
+               //Now that nobody is looking at the world, deal with robots that ran out of time
+               for(int i=0; i<deciding.length; i++)
+                    if(broken[i]!=null)
+                         timeLimitBroken(deciding[i],broken[i]);
+
+               //Carry out the actions in turn order
+               for(int i=0; i<deciding.length; i++)
+               {
+                    //Out of time: skipped, whatever it had planned so far
+                    if(broken[i]!=null)
+                         continue;
+
+                    RoboAPIImplementor api = new RoboAPIImplementor(deciding[i]);
+                    for(Intent intent : recorders[i].intents)
+                    {
+                         //Destroyed before its turn came
+                         if(robots.get(deciding[i].id)!=deciding[i])
+                              break;
+
+                         try
+                         {
+                              intent.apply(api);
+                         }
+                         catch(RoboSimExecutionException e)
+                         {
+                              //No longer possible: the rest of the plan probably isn't either
+                              break;
+                         }
+                    }
+               }
+          }
+
+     /**
+      * Sets limits on how long each call to a robot's act() may take.<br>
+      * With any limit set, act() runs on a thread of its own while the
+      * simulator watches the clock.  A robot that runs over gets its
+      * WorldAPI taken away for the rest of the call (anything it did before
+      * that stands, except in simultaneous-turn mode, where its whole turn
+      * is skipped) and, if forfeit is set, is destroyed.  A robot whose
+      * act() never returns at all misses every later turn until it does.
+      * Every violation is recorded; see getViolations().<br>
+      * The simulator can't stop a runaway thread, only abandon it, and
+      * checks the limits every few milliseconds, so robots may run a
+      * little over before they are caught.
+      * @param wall_millis longest act() may take by the clock, or 0 for no
+      *                    limit.  Includes time spent waiting for the CPU,
+      *                    so set it generously on a busy machine.
+      * @param cpu_millis most CPU time act() may use, or 0 for no limit
+      * @param forfeit whether breaking a limit destroys the robot
+      */
+     public void setTimeLimits(long wall_millis, long cpu_millis, boolean forfeit)
+          {
+               if(wall_millis < 0 || cpu_millis < 0)
+                    throw new IllegalArgumentException("time limits can't be negative");
+               wallLimit = wall_millis;
+               cpuLimit = cpu_millis;
+               forfeitOnViolation = forfeit;
+          }
+
+     /**@return descriptions of all time limits broken so far, oldest first*/
+     public List<String> getViolations() { return Collections.unmodifiableList(violations); }
+
+     /**@return number of time limits player's robots have broken so far*/
+     public int getViolationCount(String player)
+          {
+               Integer count = violationCounts.get(player);
+               return count==null ? 0 : count;
+          }
+
+     /**Records that a robot broke a time limit, and destroys it if that's the rule*/
+     private void timeLimitBroken(RobotData data, String how) throws RoboSimExecutionException
+          {
+               violations.add("Turn "+turn+": player "+data.player+"'s robot "+data.id+" "+how);
+               violationCounts.put(data.player,getViolationCount(data.player)+1);
+               if(forfeitOnViolation && robots.get(data.id)==data)
+                    removeRobot(data);
+          }
+
+     /**Runs act() for one robot under the time limits*/
+     private void actWithinLimits(RobotData data, WorldAPI api, Robot.Robot_Status status, byte[][] radio) throws RoboSimExecutionException
+          {
+               TimedAct act = new TimedAct(data,api,status,radio);
+               act.start(ACT_THREADS);
+               String broken = null;
+               try
+               {
+                    broken = act.await();
+               }
+               catch(ExecutionException e)
+               {
+                    rethrow(e.getCause());
+               }
+               if(broken!=null)
+                    timeLimitBroken(data,broken);
+          }
+
+     /**Passes on an exception thrown by a robot's act() on another thread*/
+     private static void rethrow(Throwable failure)
+          {
+               if(failure instanceof RuntimeException)
+                    throw (RuntimeException)(failure);
+               if(failure instanceof Error)
+                    throw (Error)(failure);
+               throw new RuntimeException(failure);
+          }
+
+     //Threads robots act on under time limits; daemons, so a robot stuck forever can't keep the program running
+     private static final ExecutorService ACT_THREADS = Executors.newCachedThreadPool(new ThreadFactory() {
+               public Thread newThread(Runnable task)
+                    {
+                         Thread to_return = new Thread(task,"robot-act");
+                         to_return.setDaemon(true);
+                         return to_return;
+                    }
+          });
+
+     //How often to check on a robot under time limits, in milliseconds
+     private static final long WATCH_INTERVAL = 5;
+
+     private static final ThreadMXBean CPU = ManagementFactory.getThreadMXBean();
+
+     /**@return CPU time used by thread so far in nanoseconds, or 0 if we can't tell*/
+     private static long cpuTime(Thread thread)
+          {
+               if(thread==null || !CPU.isThreadCpuTimeSupported())
+                    return 0;
+               final long time = CPU.getThreadCpuTime(thread.getId());
+               return time < 0 ? 0 : time;
+          }
+
+     /**Passes calls through to a robot's WorldAPI until revoked*/
+     private static class ApiGuard implements InvocationHandler
+     {
+          private final WorldAPI api;
+          private final String player;
+          private boolean revoked;
+
+          private ApiGuard(WorldAPI api_, String player_)
+               {
+                    api = api_;
+                    player = player_;
+               }
+
+          //Synchronized so a call already in progress finishes before revoke() returns
+          public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+               {
+                    if(revoked)
+                         throw new RoboSimExecutionException("used WorldAPI after running out of time",player);
+                    try
+                    {
+                         return method.invoke(api,args);
+                    }
+                    catch(InvocationTargetException e)
+                    {
+                         throw e.getCause();
+                    }
+               }
+
+          private synchronized void revoke() { revoked = true; }
+     }
+
+     /**One robot's call to act(), run on another thread and watched for time limits*/
+     private class TimedAct implements Runnable
+     {
+          private final RobotData data;
+          private final ApiGuard guard;
+          private final WorldAPI api;
+          private final Robot.Robot_Status status;
+          private final byte[][] radio;
+          private Future<?> done;
+
+          //When act() was handed to a thread; the wall clock limit counts from here
+          private volatile long submitted;
+
+          //Filled in by the thread running act(): clock and CPU times in nanoseconds
+          private volatile Thread runner;
+          private volatile long started, finished, cpuStarted, cpuUsed;
+
+          /**
+           * @param api_ WorldAPI to hand the robot; guarded if there are
+           *             any time limits
+           */
+          private TimedAct(RobotData data_, WorldAPI api_, Robot.Robot_Status status_, byte[][] radio_)
+               {
+                    data = data_;
+                    guard = (wallLimit > 0 || cpuLimit > 0) ? new ApiGuard(api_,data_.player) : null;
+                    api = (guard==null) ? api_ : (WorldAPI)(Proxy.newProxyInstance(WorldAPI.class.getClassLoader(),new Class<?>[] { WorldAPI.class },guard));
+                    status = status_;
+                    radio = radio_;
+               }
+
+          public void run()
+               {
+                    runner = Thread.currentThread();
+                    cpuStarted = cpuTime(runner);
+                    started = System.nanoTime();
+                    try
+                    {
+                         data.robot.act(api,status,radio);
+                    }
+                    finally
+                    {
+                         cpuUsed = cpuTime(runner) - cpuStarted;
+                         finished = System.nanoTime();
+                    }
+               }
+
+          /**Starts act() on pool, unless the robot is still stuck in an earlier one*/
+          private void start(ExecutorService pool)
+               {
+                    if(data.acting!=null && data.acting.started!=0 && data.acting.finished==0)
+                         return;
+                    data.acting = this;
+                    submitted = System.nanoTime();
+                    done = pool.submit(this);
+               }
+
+          /**
+           * @return which limit the robot has broken, going by the given
+           *         times, or null.  The clock runs from submission, so a
+           *         robot whose act() never got a thread to start on can't
+           *         keep us waiting either.
+           */
+          private String overLimit(long now, long cpu)
+               {
+                    if(wallLimit > 0 && now - submitted > wallLimit*1000000)
+                         return "took longer than "+wallLimit+" ms";
+                    if(started==0)
                          return null;
-               return player;
+                    if(cpuLimit > 0 && cpu > cpuLimit*1000000)
+                         return "used more than "+cpuLimit+" ms of CPU time";
+                    return null;
+               }
+
+          /**
+           * Waits for act() to return or the robot to run out of time.
+           * @return which limit the robot broke, or null if none
+           */
+          private String await() throws ExecutionException
+               {
+                    if(done==null)
+                         return "was still stuck in an earlier turn";
+                    try
+                    {
+                         if(guard==null)
+                         {
+                              done.get();
+                              return null;
+                         }
+
+                         while(true)
+                              try
+                              {
+                                   done.get(WATCH_INTERVAL,TimeUnit.MILLISECONDS);
+                                   return overLimit(finished,cpuUsed);
+                              }
+                              catch(TimeoutException e)
+                              {
+                                   String broken = overLimit(System.nanoTime(),cpuTime(runner) - cpuStarted);
+                                   if(broken!=null)
+                                   {
+                                        guard.revoke();
+                                        done.cancel(true);
+                                        return broken;
+                                   }
+                              }
+                    }
+                    catch(InterruptedException e)
+                    {
+                         Thread.currentThread().interrupt();
+                         throw new RuntimeException("interrupted while waiting for a robot to act");
+                    }
+                    finally
+                    {
+                         if(guard!=null)
+                              guard.revoke();
+                    }
+               }
+     }
+
+     /**
+      * Executes one timestep of the simulation.
+      * @return the winner, if any, or null
+      */
+     public String executeSingleTimeStep() throws RoboSimExecutionException
+          {
+               if(decisionPool!=null)
+                    executeSimultaneousTurns();
+               else
+                    for(turnOrder_pos=0; turnOrder_pos<turnOrder.size(); turnOrder_pos++)
+                    {
+                         //References to robot's data (null if destroyed earlier this turn)
+                         RobotData data = turnOrder.get(turnOrder_pos);
+                         if(data==null)
+                              continue;
+                         WorldAPI student_api = new RoboAPIImplementor(data);
+                         Robot.Robot_Status clonedStatus = startTurn(data);
+
+                         //Run student code
+                         if(wallLimit==0 && cpuLimit==0)
+                              data.robot.act(student_api,clonedStatus,data.buffered_radio.toArray(new byte[0][]));
+                         else
+                              actWithinLimits(data,student_api,clonedStatus,data.buffered_radio.toArray(new byte[0][]));
+                         data.buffered_radio.clear()
+                    }
+               compactTurnOrder();
+               turn++;
+               journal.setTurn(turn);
+               if(replay!=null)
+               {
+                    replay.turn(arena,turn,journal.changedSincePosition(replayMark),robotTable());
+                    replayMark = journal.position();
+               }
+               
+               //Winner is the last team standing (nobody, if everyone forfeited)
+               if(aliveTeams!=1)
+                    return null;
+               for(Team team : teams)
+                    if(!team.members.isEmpty())
+                         return team.player;
+               return null;
+          }
+
+     /**
+      * Records the match from now on, starting with the world as it is
+      * now.  Every turn played is added to the replay as it finishes;
+      * close writer once the match is over.
+      * @param writer where to record the match
+      */
+     public void setReplay(ReplayWriter writer)
+          {
+               String[] players = new String[teams.size()];
+               for(Team team : teams)
+                    players[team.id] = team.player;
+               replay = writer;
+               replayMark = journal.position();
+               writer.begin(this,arena,players,seed,turn,robotTable());
+          }
+
+     /**@return id, team, x, y, health and charge of every robot, in order of id*/
+     private int[] robotTable()
+          {
+               int count = 0;
+               for(Team team : teams)
+                    count+=team.members.size();
+               int[] table = new int[count*6];
+               int n = 0;
+               for(RobotData data : robots)
+                    if(data!=null)
+                    {
+                         table[n++] = data.id;
+                         table[n++] = data.team.id;
+                         table[n++] = data.x;
+                         table[n++] = data.y;
+                         table[n++] = data.status.health;
+                         table[n++] = data.status.charge;
+                    }
+               return table;
+          }
+
+     /**
+      * Gets the current standings.  Costs time proportional to the number
+      * of robots, not the size of the arena, so it's fine to call every turn.
+      * @return one Standing per player, in the order players were given to
+      *         the constructor
+      */
+     public Standing[] getStandings()
+          {
+               Standing[] to_return = new Standing[teams.size()];
+               for(Team team : teams)
+               {
+                    Standing standing = to_return[team.id] = new Standing();
+                    standing.player = team.player;
+                    standing.robots = team.members.size();
+                    for(RobotData data : team.members)
+                    {
+                         standing.health+=data.status.health;
+                         standing.charge+=data.status.charge;
+                    }
+               }
+               return to_return;
           }
 }
@@ -0,0 +1,168 @@
+/**
+ * RobotIndex: where every robot is, bucketed by area, for finding the
+ * robot nearest a cell.<br><br>
+ * The arena is divided into square buckets BUCKET_SIZE cells on a side, and
+ * each bucket keeps a doubly-linked list of the robots in it, threaded
+ * through arrays indexed by robot id.  Adding, moving and removing a robot
+ * take constant time.  A nearest-robot search looks at buckets in rings
+ * of increasing distance and stops as soon as no farther ring can hold
+ * anything closer, so it costs time proportional to the number of robots
+ * nearby rather than to the size of the arena.<br><br>
+ * Distances are counted in steps, the way findNearestAlly() counts them:
+ * up, down, left or right, straight through anything in the way.
+ */
+import java.util.Arrays;
+final class RobotIndex
+{
+     /**Side of a bucket in cells*/
+     static final int BUCKET_SIZE = 8;
+
+     //Size of the arena in buckets
+     private final int buckets_x, buckets_y;
+
+     //First robot in each bucket, or 0
+     private final int[] head;
+
+     //Per robot id: neighbors in its bucket's list (0 for none), position, team, and bucket (-1 if not indexed)
+     private int[] next, prev, x, y, team, bucket;
+
+     /**
+      * Creates an empty index.
+      * @param length number of columns (x) of the arena
+      * @param width number of rows (y) of the arena
+      */
+     RobotIndex(int length, int width)
+          {
+               buckets_x = (length + BUCKET_SIZE - 1) / BUCKET_SIZE;
+               buckets_y = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+               head = new int[buckets_x*buckets_y];
+               next = new int[16];
+               prev = new int[16];
+               x = new int[16];
+               y = new int[16];
+               team = new int[16];
+               bucket = new int[16];
+               Arrays.fill(bucket,-1);
+          }
+
+     private int bucketOf(int x_, int y_) { return (x_/BUCKET_SIZE)*buckets_y + y_/BUCKET_SIZE; }
+
+     /**
+      * Adds a robot.
+      * @param id robot's id (positive)
+      * @param x_ x coordinate of its cell
+      * @param y_ y coordinate of its cell
+      * @param team_ id of its team
+      */
+     void add(int id, int x_, int y_, int team_)
+          {
+               if(id >= bucket.length)
+               {
+                    final int size = Math.max(id+1,bucket.length*2);
+                    next = Arrays.copyOf(next,size);
+                    prev = Arrays.copyOf(prev,size);
+                    x = Arrays.copyOf(x,size);
+                    y = Arrays.copyOf(y,size);
+                    team = Arrays.copyOf(team,size);
+                    final int old_size = bucket.length;
+                    bucket = Arrays.copyOf(bucket,size);
+                    Arrays.fill(bucket,old_size,size,-1);
+               }
+               team[id] = team_;
+               link(id,x_,y_);
+          }
+
+     /**Moves a robot to cell (x_,y_)*/
+     void move(int id, int x_, int y_)
+          {
+               if(bucketOf(x_,y_)==bucket[id])
+               {
+                    x[id] = x_;
+                    y[id] = y_;
+                    return;
+               }
+               unlink(id);
+               link(id,x_,y_);
+          }
+
+     /**Removes a robot*/
+     void remove(int id) { unlink(id); }
+
+     private void link(int id, int x_, int y_)
+          {
+               x[id] = x_;
+               y[id] = y_;
+               final int b = bucket[id] = bucketOf(x_,y_);
+               prev[id] = 0;
+               next[id] = head[b];
+               if(head[b]!=0)
+                    prev[head[b]] = id;
+               head[b] = id;
+          }
+
+     private void unlink(int id)
+          {
+               final int b = bucket[id];
+               if(prev[id]!=0)
+                    next[prev[id]] = next[id];
+               else
+                    head[b] = next[id];
+               if(next[id]!=0)
+                    prev[next[id]] = prev[id];
+               bucket[id] = -1;
+          }
+
+     /**
+      * Finds the robot nearest a cell.
+      * @param x_ x coordinate of the cell
+      * @param y_ y coordinate of the cell
+      * @param team_ team to look for (or to avoid, if enemies)
+      * @param enemies whether to look for robots on any team but team_
+      *                instead of robots on team_
+      * @param exclude id of a robot to leave out (the one asking), or 0
+      * @return id of the nearest such robot, the lowest id if several are
+      *         equally near, or 0 if there are none
+      */
+     int nearest(int x_, int y_, int team_, boolean enemies, int exclude)
+          {
+               final int bx = x_/BUCKET_SIZE, by = y_/BUCKET_SIZE;
+               final int max_ring = Math.max(Math.max(bx,buckets_x-1-bx),Math.max(by,buckets_y-1-by));
+
+               //Distance in the high half, id in the low: the smallest value is the answer
+               long best = Long.MAX_VALUE;
+               for(int ring=0; ring<=max_ring; ring++)
+               {
+                    //Walk the buckets exactly ring buckets away (in x or y) from ours
+                    for(int i=Math.max(bx-ring,0); i<=Math.min(bx+ring,buckets_x-1); i++)
+                         if(i==bx-ring || i==bx+ring)
+                         {
+                              for(int j=Math.max(by-ring,0); j<=Math.min(by+ring,buckets_y-1); j++)
+                                   best = scan(i*buckets_y + j,best,x_,y_,team_,enemies,exclude);
+                         }
+                         else
+                         {
+                              if(by-ring >= 0)
+                                   best = scan(i*buckets_y + by-ring,best,x_,y_,team_,enemies,exclude);
+                              if(by+ring < buckets_y)
+                                   best = scan(i*buckets_y + by+ring,best,x_,y_,team_,enemies,exclude);
+                         }
+
+                    //Everything in the next ring is at least ring*BUCKET_SIZE+1 steps away
+                    if((best >>> 32) <= ring*BUCKET_SIZE)
+                         break;
+               }
+               return best==Long.MAX_VALUE ? 0 : (int)(best);
+          }
+
+     /**@return the smaller of best and the best match in bucket b, packed as in nearest()*/
+     private long scan(int b, long best, int x_, int y_, int team_, boolean enemies, int exclude)
+          {
+               for(int id=head[b]; id!=0; id=next[id])
+                    if(id!=exclude && (team[id]==team_)!=enemies)
+                    {
+                         final long distance = Math.abs(x[id]-x_) + Math.abs(y[id]-y_);
+                         best = Math.min(best,(distance << 32) | id);
+                    }
+               return best;
+          }
+}
@@ -18,38 +18,305 @@
  * using the OS to do this.  AWT instead uses the native OS controls, so it
  * should look like a normal program on whatever OS you run this on.<br><br>
  *
+ * The simulation runs on a thread of its own, never on the event thread,
+ * so a slow turn can't freeze the window.  After each turn it copies the
+ * world into a WorldSnapshot and hands it over through an AtomicReference;
+ * the display picks up the newest one on a timer of its own and draws only
+ * that.  In turbo mode the simulation doesn't wait between turns at all
+ * and only takes a snapshot once the display has taken the last one, so
+ * the display samples the game instead of slowing it down.<br><br>
+ * The display itself lives in an offscreen image.  Each snapshot carries
+ * the list of cells changed since the one on display, and only those are
+ * drawn again; painting the canvas just copies the image.<br><br>
+ * The canvas is a viewport onto the arena: drag to pan (or use the arrow
+ * keys), turn the mouse wheel to zoom, and double-click to fit the whole
+ * arena again.  Only the cells in view are drawn.  When cells get smaller
+ * than a pixel, each pixel shows a block of cells instead, shaded by how
+ * many robots and obstacles it holds according to a DensityPyramid kept up
+ * to date from the same change lists.<br><br>
+ * Replay... opens a file recorded by ReplayWriter and plays it through the
+ * same snapshots, Play, Pause and speed controls, with no robots loaded;
+ * Go to turn jumps anywhere in it through the file's keyframe index.<br><br>
+ *
  * This is VERY rough at the moment ... I'm testing the logic code, so I
  * only really wrote enough of the GUI frontend to be able to do that.
  */
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import javax.swing.JOptionPane;
 import javax.swing.Timer;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 public class SimulatorGUI extends Frame
 {
+     /**Frames per second the display is redrawn at, at most*/
+     private static final int FRAME_RATE = 30;
+
+     /**Copy of the world as it was after some turn, for drawing*/
+     private static class WorldSnapshot
+     {
+          //Simulation or replay the snapshot was taken of, and its change mark at the time
+          public WorldSource source;
+          public int turn;
+          public long mark;
+
+          //Cells changed since the frame on display when this one was taken, or null for all of them
+          public int[] dirty;
+
+          //Per cell, indexed x*width + y
+          public Robot.GridObject[] contents;
+          public Robot.Direction[] fort_orientation;
+          public String[] occupant_player;
+
+          WorldSnapshot(int cells)
+               {
+                    contents = new Robot.GridObject[cells];
+                    fort_orientation = new Robot.Direction[cells];
+                    occupant_player = new String[cells];
+               }
+
+          /**
+           * Brings the snapshot up to date, copying only the cells changed
+           * since it was last filled from the same source.  Called on the
+           * simulation thread, which is the only one touching source_.
+           * @param drawn_mark change mark of the frame on display, or -1
+           */
+          void fill(WorldSource source_, long drawn_mark)
+               {
+                    final int[] changed = (source==source_) ? source_.getChangedCellIndices(mark) : null;
+                    dirty = (drawn_mark!=-1) ? source_.getChangedCellIndices(drawn_mark) : null;
+                    source = source_;
+                    turn = source_.getTurn();
+                    mark = source_.getChangeMark();
+
+                    Robot.GridCell[][] world = source_.getWorldGrid();
+                    final int width = world[0].length;
+                    if(changed==null)
+                    {
+                         for(int n=0; n<contents.length; n++)
+                              copy(source_,world[n/width][n%width],n);
+                    }
+                    else
+                         for(int n : changed)
+                              copy(source_,world[n/width][n%width],n);
+               }
+
+          private void copy(WorldSource source_, Robot.GridCell cell, int n)
+               {
+                    contents[n] = cell.contents;
+                    fort_orientation[n] = cell.fort_orientation;
+                    occupant_player[n] = source_.getOccupantPlayer(cell);
+               }
+     }
+
+     /**Runs one simulation (or replay) until paused, finished or failed*/
+     private class SimulationThread extends Thread
+     {
+          private final WorldSource source;
+          private final int cells;
+
+          //Thread that ran this simulation before, which we must wait out
+          private final Thread previous;
+
+          private volatile boolean running = true;
+
+          SimulationThread(WorldSource source_, Thread previous_)
+               {
+                    super("Simulation");
+                    setDaemon(true);
+                    source = source_;
+                    cells = length*width;
+                    previous = previous_;
+               }
+
+          void halt() { running = false; }
+
+          public void run()
+               {
+                    try
+                    {
+                         if(previous!=null)
+                              previous.join();
+
+                         seekIfAsked();
+                         while(running)
+                         {
+                              final long started = System.nanoTime();
+                              final String result = step();
+
+                              //In turbo mode, skip the copy unless the display is ready for a new frame
+                              if(!turbo || result!=null || latest.get()==null)
+                                   publish();
+
+                              if(result!=null)
+                              {
+                                   finished(result);
+                                   return;
+                              }
+
+                              //Wait in short naps, so pausing, turbo and new speeds take effect promptly
+                              long wait;
+                              while(running && !turbo && (wait = delay - (System.nanoTime() - started)/1000000) > 0)
+                                   Thread.sleep(Math.min(wait,1000/FRAME_RATE));
+                              seekIfAsked();
+                         }
+                    }
+                    catch(RoboSim.RoboSimExecutionException m)
+                    {
+                         publish();
+                         finished(m.getMessage());
+                    }
+                    catch(IOException e)
+                    {
+                         finished("Couldn't read replay: "+e.getMessage());
+                    }
+                    catch(RuntimeException e)
+                    {
+                         //Student code blew up; we can't tell whose, and the world may be half-updated, so show it as it last was
+                         finished("Simulation stopped: "+e);
+                    }
+                    catch(InterruptedException e)
+                    {
+                         //Reset while we were waiting: nothing to show any more
+                    }
+               }
+
+          /**Plays a turn, or a turn of the replay
+           * @return message to end on, or null to go on*/
+          private String step() throws RoboSim.RoboSimExecutionException, IOException
+               {
+                    if(source instanceof ReplayReader)
+                         return ((ReplayReader)(source)).next() ? null : "End of replay";
+                    final String winner = ((RoboSim)(source)).executeSingleTimeStep();
+                    return winner==null ? null : "The winner is: "+winner;
+               }
+
+          private void seekIfAsked() throws IOException
+               {
+                    final int target = seek_to.getAndSet(-1);
+                    if(target!=-1 && source instanceof ReplayReader)
+                    {
+                         ((ReplayReader)(source)).seek(target);
+                         publish();
+                    }
+               }
+
+          private void publish()
+               {
+                    WorldSnapshot frame = spare.getAndSet(null);
+                    if(frame==null || frame.contents.length!=cells)
+                         frame = new WorldSnapshot(cells);
+                    frame.fill(source,drawn_mark);
+
+                    //A frame the display never got to is recycled
+                    WorldSnapshot unseen = latest.getAndSet(frame);
+                    if(unseen!=null)
+                         spare.set(unseen);
+               }
+
+          private void finished(final String message)
+               {
+                    EventQueue.invokeLater(new Runnable() {
+                              public void run()
+                                   {
+                                        if(simulation!=SimulationThread.this)
+                                             return;
+                                        simulation = null;
+                                        startstop.setLabel("Play");
+                                        JOptionPane.showMessageDialog(null,message);
+                                   }
+                         });
+               }
+     }
+
      //Program State
      private RoboSim current_sim;
      private Timer ticker;
 
+     //Replay being played instead of a simulation, if any
+     private ReplayReader current_replay;
+
+     //Thread running current_sim (or current_replay), or null when paused
+     private SimulationThread simulation;
+
+     //Last thread started, so a new one never runs a turn alongside it
+     private Thread last_thread;
+
+     //Turn of the replay to go to, or -1; taken up by the next thread to run
+     private final AtomicInteger seek_to = new AtomicInteger(-1);
+
+     //Milliseconds the simulation waits between turns unless in turbo mode
+     private volatile int delay = 999999;
+     private volatile boolean turbo;
+
+     //Newest snapshot not yet taken by the display, and one it has finished with
+     private final AtomicReference<WorldSnapshot> latest = new AtomicReference<WorldSnapshot>();
+     private final AtomicReference<WorldSnapshot> spare = new AtomicReference<WorldSnapshot>();
+
+     //Snapshot being displayed; only touched on the event thread
+     private WorldSnapshot showing;
+
+     //Change mark of the snapshot drawn into offscreen, or -1 if it has to be drawn from scratch
+     private volatile long drawn_mark = -1;
+
+     //The display, drawn cell by cell as cells change and copied to the screen; only touched on the event thread
+     private BufferedImage offscreen;
+
+     //Viewport: cell in the top left corner, and size of a cell in pixels
+     private int view_x, view_y;
+     private int cell_length, cell_height;
+
+     //If nonzero, cells are smaller than a pixel and each pixel shows a block of 2^lod by 2^lod cells
+     private int lod;
+
+     //Whether the view is still the whole arena fitted to the canvas, as it is until panned or zoomed
+     private boolean fitted = true;
+
+     //Robots and obstacles per block, built the first time blocks are shown
+     private DensityPyramid pyramid;
+
+     //Where a drag started, and the view at the time
+     private int drag_x, drag_y, drag_view_x, drag_view_y;
+
+     /**Largest a cell gets when zooming in, and smallest that still gets grid lines*/
+     private static final int MAX_CELL_SIZE = 64;
+     private static final int MIN_GRID_CELL = 4;
+
+     //Color of each player's robots, assigned when the simulation starts
+     private HashMap<String,Color> colorMap = new HashMap<String,Color>();
+
+     //Colors handed to players in turn; after the last, they start over from the second
+     private static final Color[] PLAYER_COLORS = { Color.RED, Color.PINK, Color.ORANGE, Color.YELLOW, Color.GREEN, Color.MAGENTA,
+                                                    Color.CYAN, Color.BLUE, Color.LIGHT_GRAY, Color.GRAY, Color.DARK_GRAY };
+
      //GUI Components
      private List playerList;
      private Canvas canvas;
      private TextField speed;
      private TextField addPlayerField;
-     private Button reset, addPlayer, setSpeed, startstop;
+     private Button reset, addPlayer, setSpeed, startstop, openReplay, goToTurn;
+     private TextField turnField;
+     private Checkbox turboBox;
      
      //Parameters for RoboSim
      private int initial_robots_per_combatant;
      private int skill_points;
+     private int sim_length;
+     private int sim_width;
+     private int obstacles;
+
+     //Size of the arena on display: the simulation's, or the replay's
      private int length;
      private int width;
-     private int obstacles;
 
      public SimulatorGUI(int gridX, int gridY, int skillz, int bots_per_player, int obstacles_) {
           //Store RoboSim parameters
-          length=gridX;
-          width=gridY;
+          length=sim_length=gridX;
+          width=sim_width=gridY;
           skill_points=skillz;
           initial_robots_per_combatant = bots_per_player;
           obstacles=obstacles_;
@@ -81,113 +348,71 @@ public class SimulatorGUI extends Frame
 		add(playerList, gbc_list);
 		
 		canvas = new Canvas() {
+			//Copy the offscreen image; no clearing first, it covers everything that changes
+			public void update(Graphics g)
+			{
+                 paint(g);
+			}
+
 			public void paint(Graphics g)
 			{
-                 //Get bounds of rid
+                 //Get bounds of grid; a new size means drawing it all again
                  Rectangle r = getBounds();
-                 int cell_length = r.width/length;
-                 int cell_height = r.height/width;
-
-                 //Draw grid
-                 for(int i=0; i<=length; i++)
-                      g.drawLine(0,cell_height*i,cell_length*length,cell_height*i);
-                 for(int i=0; i<=width; i++)
-                      g.drawLine(cell_length*i,0,cell_length*i,cell_height*width);
-
-                 //If there's no current sim, we need to exit now
-                 if(current_sim==null)
-                      return;
-
-                 //Generate color mapping
-                 HashMap<String,Color> colorMap = new HashMap<String,Color>();
-                 Color current_color = Color.BLACK;
-                 for(String x : playerList.getItems())
-                 {
-                      //Update color
-                      if(current_color.equals(Color.BLACK))
-                           current_color = Color.RED;
-                      else if(current_color.equals(Color.RED))
-                           current_color = Color.PINK;
-                      else if(current_color.equals(Color.PINK))
-                           current_color = Color.ORANGE;
-                      else if(current_color.equals(Color.ORANGE))
-                           current_color = Color.YELLOW;
-                      else if(current_color.equals(Color.YELLOW))
-                           current_color = Color.GREEN;
-                      else if(current_color.equals(Color.GREEN))
-                           current_color = Color.MAGENTA;
-                      else if(current_color.equals(Color.MAGENTA))
-                           current_color = Color.CYAN;
-                      else if(current_color.equals(Color.CYAN))
-                           current_color = Color.BLUE;
-                      else if(current_color.equals(Color.BLUE))
-                           current_color = Color.LIGHT_GRAY;
-                      else if(current_color.equals(Color.LIGHT_GRAY))
-                           current_color = Color.GRAY;
-                      else if(current_color.equals(Color.GRAY))
-                           current_color = Color.DARK_GRAY;
-                      else if(current_color.equals(Color.DARK_GRAY))
-                           current_color = Color.PINK;
-
-                      //Add mapping
-                      colorMap.put(x,current_color);
-                 }
-
-                 //Iterate over RoboSim grid and "paint" squares that need to be painted
-                 Robot.GridCell[][] world = current_sim.getWorldGrid();
-                 for(int i=0; i<length; i++)
-                      for(int j=0; j<width; j++)
-                           switch(world[i][j].contents)
-                           {
-                           case BLOCKED:
-                                //Draw a black 'X' in the cell
-                                g.setColor(Color.BLACK);
-                                g.drawLine(i*cell_length,j*cell_height,(i+1)*cell_length,(j+1)*cell_height);
-                                g.drawLine(i*cell_length,(j+1)*cell_height,(i+1)*cell_length,j*cell_height);
-                                break;
-                           case SELF:
-                                //Fill rectangle with color representing player
-                                g.setColor(colorMap.get(current_sim.getOccupantPlayer(world[i][j])));
-                                g.fillRect(i*cell_length,j*cell_height,cell_length,cell_height);
-                                break;
-                           case WALL:
-                                g.setColor(Color.BLACK);
-                                g.fillRect(i*cell_length,j*cell_height,cell_length,cell_height);
-                                break;
-                           case FORT:
-                                g.setColor(Color.BLACK);
-                                switch(world[i][j].fort_orientation)
-                                {
-                                case UP:
-                                     g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,(int)((i+0.5)*cell_length),j*cell_height);
-                                     g.drawLine((int)((i+0.5)*cell_length),j*cell_height,i*cell_length,(j+1)*cell_height);
-                                     g.drawLine((int)((i+0.5)*cell_length),j*cell_height,(i+1)*cell_length,(j+1)*cell_height);
-                                     break;
-                                case DOWN:
-                                     g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,(int)((i+0.5)*cell_length),j*cell_height);
-                                     g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,i*cell_length,j*cell_height);
-                                     g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,(i+1)*cell_length,j*cell_height);
-                                     break;
-                                case LEFT:
-                                     g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,(int)((j+0.5)*cell_height));
-                                     g.drawLine((i+1)*cell_length,(int)((j+0.5)*cell_height),i*cell_length,j*cell_height);
-                                     g.drawLine((i+1)*cell_length,(int)((j+0.5)*cell_height),i*cell_length,(j+1)*cell_height);
-                                     break;
-                                case RIGHT:
-                                     g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,(int)((j+0.5)*cell_height));
-                                     g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,j*cell_height);
-                                     g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,(j+1)*cell_height);
-                                     break;
-                                }
-                                break;
-                           case CAPSULE:
-                                g.setColor(Color.BLACK);
-                                g.drawOval(i*cell_length,j*cell_height,cell_length,cell_height);
-                                break;
-                           }
+                 if(offscreen==null || offscreen.getWidth()!=Math.max(r.width,1) || offscreen.getHeight()!=Math.max(r.height,1))
+                      redrawAll();
+                 g.drawImage(offscreen,0,0,null);
 			}
 		};
 
+        //Drag pans, the wheel zooms around the pointer, and a double click fits the arena again
+        canvas.addMouseListener(new MouseAdapter() {
+                  public void mousePressed(MouseEvent e)
+                       {
+                            drag_x = e.getX();
+                            drag_y = e.getY();
+                            drag_view_x = view_x;
+                            drag_view_y = view_y;
+                            canvas.requestFocus();
+                       }
+
+                  public void mouseClicked(MouseEvent e)
+                       {
+                            if(e.getClickCount()==2)
+                            {
+                                 fitted = true;
+                                 offscreen = null;
+                                 canvas.repaint();
+                            }
+                       }
+             });
+        canvas.addMouseMotionListener(new MouseMotionAdapter() {
+                  public void mouseDragged(MouseEvent e)
+                       {
+                            setView(drag_view_x - pixelsToCells(e.getX()-drag_x,cell_length),drag_view_y - pixelsToCells(e.getY()-drag_y,cell_height));
+                       }
+             });
+        canvas.addMouseWheelListener(new MouseWheelListener() {
+                  public void mouseWheelMoved(MouseWheelEvent e)
+                       {
+                            zoom(e.getWheelRotation(),e.getX(),e.getY());
+                       }
+             });
+        canvas.addKeyListener(new KeyAdapter() {
+                  public void keyPressed(KeyEvent e)
+                       {
+                            //Arrows pan by a quarter of the view
+                            final int dx = pixelsToCells(canvas.getWidth()/4,cell_length);
+                            final int dy = pixelsToCells(canvas.getHeight()/4,cell_height);
+                            switch(e.getKeyCode())
+                            {
+                            case KeyEvent.VK_LEFT: setView(view_x-dx,view_y); break;
+                            case KeyEvent.VK_RIGHT: setView(view_x+dx,view_y); break;
+                            case KeyEvent.VK_UP: setView(view_x,view_y-dy); break;
+                            case KeyEvent.VK_DOWN: setView(view_x,view_y+dy); break;
+                            }
+                       }
+             });
+
 		canvas.setBounds(0, 0, 50, 50);
 		canvas.setBackground(Color.WHITE);
 		GridBagConstraints gbc_canvas = new GridBagConstraints();
@@ -231,8 +456,7 @@ public class SimulatorGUI extends Frame
         reset.addActionListener(new ActionListener() {
                   public void actionPerformed(ActionEvent e)
                        {
-                            current_sim = null;
-                            ticker.stop();
+                            resetAll();
                             playerList.removeAll();
                             canvas.repaint();
                        }
@@ -285,13 +509,23 @@ public class SimulatorGUI extends Frame
                                  return;
                             }
 
-                            boolean wasRunning = ticker.isRunning();
-                            if(wasRunning)
-                                 ticker.stop();
-                            ticker.setInitialDelay(newSpeed);
-                            ticker.setDelay(newSpeed);
-                            if(wasRunning)
-                                 ticker.restart();
+                            //Takes effect after the turn in progress
+                            delay = newSpeed;
+                       }
+             });
+
+		turboBox = new Checkbox("Turbo");
+		GridBagConstraints gbc_turbo = new GridBagConstraints();
+		gbc_turbo.fill = GridBagConstraints.BOTH;
+		gbc_turbo.gridx = 2;
+		gbc_turbo.gridy = 1;
+		add(turboBox,gbc_turbo);
+
+        //Turbo runs turns as fast as they go; the display shows what it can
+        turboBox.addItemListener(new ItemListener() {
+                  public void itemStateChanged(ItemEvent e)
+                       {
+                            turbo = turboBox.getState();
                        }
              });
 
@@ -302,57 +536,458 @@ public class SimulatorGUI extends Frame
 		gbc_startstop.gridy = 0;
 		add(startstop,gbc_startstop);
 
-        //Play button starts world by starting timer
+        //Play button starts world by starting simulation thread
         startstop.addActionListener(new ActionListener() {
                   public void actionPerformed(ActionEvent e)
                        {
-                            if(!ticker.isRunning())
+                            if(simulation==null)
                             {
-                                 if(current_sim==null)
+                                 if(current_sim==null && current_replay==null)
                                       try
                                       {
                                            current_sim = new RoboSim(playerList.getItems(),initial_robots_per_combatant,skill_points,length,width,obstacles);
+                                           assignColors(playerList.getItems());
                                       }
                                       catch(RoboSim.RoboSimExecutionException m)
                                       {
                                            JOptionPane.showMessageDialog(null,m.getMessage());
+                                           return;
                                       }
-                                 ticker.start();
+                                 simulation = new SimulationThread(currentSource(),last_thread);
+                                 last_thread = simulation;
+                                 simulation.start();
                                  startstop.setLabel("Pause");
                             }
                             else
                             {
-                                 ticker.stop();
+                                 //The turn in progress still finishes
+                                 simulation.halt();
+                                 simulation = null;
                                  startstop.setLabel("Play");
                             }
                        }
              });
 
-        //Set up timer
-        ticker = new Timer(999999, new ActionListener() {
+		openReplay = new Button("Replay...");
+		GridBagConstraints gbc_replay = new GridBagConstraints();
+		gbc_replay.fill = GridBagConstraints.BOTH;
+		gbc_replay.gridx = 2;
+		gbc_replay.gridy = 2;
+		add(openReplay,gbc_replay);
+
+        //Replay button loads a recorded match in place of the simulation
+        openReplay.addActionListener(new ActionListener() {
+                  public void actionPerformed(ActionEvent e)
+                       {
+                            FileDialog chooser = new FileDialog(SimulatorGUI.this,"Open replay",FileDialog.LOAD);
+                            chooser.setVisible(true);
+                            if(chooser.getFile()==null)
+                                 return;
+                            ReplayReader replay;
+                            try
+                            {
+                                 replay = new ReplayReader(new File(chooser.getDirectory(),chooser.getFile()));
+                            }
+                            catch(IOException m)
+                            {
+                                 JOptionPane.showMessageDialog(null,"Couldn't open replay: "+m.getMessage());
+                                 return;
+                            }
+
+                            resetAll();
+                            current_replay = replay;
+                            length = replay.getLength();
+                            width = replay.getWidth();
+                            playerList.removeAll();
+                            for(String player : replay.getPlayers())
+                                 playerList.add(player);
+                            assignColors(replay.getPlayers());
+                            goTo(replay.getFirstTurn());
+                       }
+             });
+
+		turnField = new TextField();
+		GridBagConstraints gbc_turn = new GridBagConstraints();
+		gbc_turn.fill = GridBagConstraints.BOTH;
+		gbc_turn.gridx = 2;
+		gbc_turn.gridy = 3;
+		add(turnField,gbc_turn);
+
+		goToTurn = new Button("Go to turn");
+		GridBagConstraints gbc_goto = new GridBagConstraints();
+		gbc_goto.fill = GridBagConstraints.BOTH;
+		gbc_goto.gridx = 2;
+		gbc_goto.gridy = 4;
+		add(goToTurn,gbc_goto);
+
+        //Go to turn jumps to any turn of a replay
+        goToTurn.addActionListener(new ActionListener() {
                   public void actionPerformed(ActionEvent e)
                        {
-                            String ret = null;
+                            if(current_replay==null)
+                            {
+                                 JOptionPane.showMessageDialog(null,"Only replays can go to a turn");
+                                 return;
+                            }
+                            int target;
                             try
                             {
-                                 ret = current_sim.executeSingleTimeStep();
+                                 target = Integer.parseInt(turnField.getText());
                             }
-                            catch(RoboSim.RoboSimExecutionException m)
+                            catch(NumberFormatException ne)
+                            {
+                                 JOptionPane.showMessageDialog(null,"Invalid turn (not an integer)");
+                                 return;
+                            }
+                            goTo(Math.max(target,0));
+                       }
+             });
+
+        //Set up timer redrawing the display whenever there's a new snapshot
+        ticker = new Timer(1000/FRAME_RATE, new ActionListener() {
+                  public void actionPerformed(ActionEvent e)
+                       {
+                            WorldSnapshot frame = latest.getAndSet(null);
+                            if(frame==null)
+                                 return;
+
+                            //Snapshot of a simulation since reset
+                            if(frame.source!=currentSource())
+                                 return;
+
+                            if(showing!=null)
+                                 spare.set(showing);
+                            showing = frame;
+
+                            //Keep the densities current, or have them built again with everything else
+                            if(pyramid!=null)
                             {
-                                 JOptionPane.showMessageDialog(null,m.getMessage());
-                                 ret=null;
-                                 ticker.stop();
+                                 if(frame.dirty!=null)
+                                      for(int n : frame.dirty)
+                                           pyramid.set(n/width,n%width,densityKind(frame,n));
+                                 else
+                                      pyramid = null;
                             }
-                                 if(ret!=null)
+
+                            //Draw what changed and is in view, unless it all has to be drawn anyway
+                            if(offscreen!=null && frame.dirty!=null)
+                            {
+                                 Graphics g = offscreen.getGraphics();
+                                 for(int n : frame.dirty)
                                  {
-                                      ticker.stop();
-                                      JOptionPane.showMessageDialog(null,"The winner is: "+ret);
+                                      final int i = n/width, j = n%width;
+                                      if(lod > 0)
+                                           drawBlock((i >> lod) - (view_x >> lod),(j >> lod) - (view_y >> lod));
+                                      else if(i >= view_x && j >= view_y && (i-view_x)*cell_length < offscreen.getWidth() && (j-view_y)*cell_height < offscreen.getHeight())
+                                           drawCell(g,i,j);
                                  }
-                                 canvas.repaint();
+                                 g.dispose();
+                            }
+                            else
+                                 offscreen = null;
+                            drawn_mark = frame.mark;
+                            canvas.repaint();
                        }
              });
+        ticker.start();
 	}
 	
+     /**@return what is being shown: the simulation, or the replay*/
+     private WorldSource currentSource()
+          {
+               return current_sim!=null ? current_sim : current_replay;
+          }
+
+     /**Stops and forgets the simulation or replay, and everything drawn of it*/
+     private void resetAll()
+          {
+               if(simulation!=null)
+               {
+                    simulation.halt();
+                    simulation.interrupt();
+                    simulation = null;
+               }
+               current_sim = null;
+               if(current_replay!=null)
+               {
+                    try
+                    {
+                         current_replay.close();
+                    }
+                    catch(IOException m)
+                    {
+                    }
+                    current_replay = null;
+               }
+               length = sim_length;
+               width = sim_width;
+               seek_to.set(-1);
+               latest.set(null);
+               showing = null;
+               drawn_mark = -1;
+               offscreen = null;
+               pyramid = null;
+               fitted = true;
+               startstop.setLabel("Play");
+          }
+
+     /**Gives each player the next color in line*/
+     private void assignColors(String[] players)
+          {
+               colorMap.clear();
+               for(int i=0; i<players.length; i++)
+                    colorMap.put(players[i],PLAYER_COLORS[i==0 ? 0 : 1 + (i-1)%(PLAYER_COLORS.length-1)]);
+          }
+
+     /**Moves the replay to a turn: the running thread picks it up, or one is started just for that*/
+     private void goTo(int target)
+          {
+               seek_to.set(target);
+               if(simulation==null)
+               {
+                    SimulationThread seeker = new SimulationThread(current_replay,last_thread);
+                    seeker.halt();
+                    last_thread = seeker;
+                    seeker.start();
+               }
+          }
+
+     /**Draws the grid and every cell in view of the snapshot on display into a new offscreen image*/
+     private void redrawAll()
+          {
+               Rectangle r = canvas.getBounds();
+               if(fitted)
+                    fit(Math.max(r.width,1),Math.max(r.height,1));
+               offscreen = new BufferedImage(Math.max(r.width,1),Math.max(r.height,1),BufferedImage.TYPE_INT_RGB);
+               Graphics g = offscreen.getGraphics();
+               g.setColor(Color.WHITE);
+               g.fillRect(0,0,r.width,r.height);
+
+               if(lod > 0)
+               {
+                    if(pyramid==null)
+                         buildPyramid();
+                    for(int px=0; px<r.width; px++)
+                         for(int py=0; py<r.height; py++)
+                              drawBlock(px,py);
+               }
+               else
+               {
+                    final int last_x = Math.min(length,view_x + r.width/cell_length + 1);
+                    final int last_y = Math.min(width,view_y + r.height/cell_height + 1);
+                    for(int i=view_x; i<last_x; i++)
+                         for(int j=view_y; j<last_y; j++)
+                              drawCell(g,i,j);
+
+                    //Bottom and right edges of the grid; each cell draws its own top and left
+                    if(cell_length >= MIN_GRID_CELL && cell_height >= MIN_GRID_CELL)
+                    {
+                         g.setColor(Color.BLACK);
+                         g.drawLine(0,cell_height*(width-view_y),cell_length*(length-view_x),cell_height*(width-view_y));
+                         g.drawLine(cell_length*(length-view_x),0,cell_length*(length-view_x),cell_height*(width-view_y));
+                    }
+               }
+               g.dispose();
+          }
+
+     /**Shows the whole arena in a canvas of the given size, in blocks if the cells won't fit*/
+     private void fit(int canvas_width, int canvas_height)
+          {
+               view_x = view_y = 0;
+               cell_length = canvas_width/length;
+               cell_height = canvas_height/width;
+               lod = 0;
+               if(cell_length==0 || cell_height==0)
+               {
+                    cell_length = cell_height = 1;
+                    do
+                         lod++;
+                    while((length-1) >> lod >= canvas_width || (width-1) >> lod >= canvas_height);
+               }
+          }
+
+     /**@return number of cells (or blocks' worth of cells) that many pixels cover*/
+     private int pixelsToCells(int pixels, int cell_size)
+          {
+               return lod > 0 ? pixels << lod : pixels/cell_size;
+          }
+
+     /**Moves the view to put cell (x,y) in the top left corner*/
+     private void setView(int x, int y)
+          {
+               x = Math.max(0,Math.min(x,length-1));
+               y = Math.max(0,Math.min(y,width-1));
+
+               //Blocks start at multiples of their size
+               x &= -(1 << lod);
+               y &= -(1 << lod);
+               fitted = false;
+               if(x!=view_x || y!=view_y)
+               {
+                    view_x = x;
+                    view_y = y;
+                    offscreen = null;
+                    canvas.repaint();
+               }
+          }
+
+     /**
+      * Zooms in (steps < 0) or out (steps > 0), keeping the cell under
+      * pixel (px,py) where it is.
+      */
+     private void zoom(int steps, int px, int py)
+          {
+               final int cx = view_x + pixelsToCells(px,cell_length), cy = view_y + pixelsToCells(py,cell_height);
+
+               //Deepest level: the whole arena is one block
+               int max_lod = 0;
+               while((Math.max(length,width)-1) >> max_lod > 0)
+                    max_lod++;
+
+               int size = Math.min(cell_length,cell_height);
+               for(int i=0; i<Math.abs(steps); i++)
+                    if(steps < 0)
+                    {
+                         if(lod > 0)
+                              lod--;
+                         else
+                              size = Math.min(size*2,MAX_CELL_SIZE);
+                    }
+                    else
+                    {
+                         if(lod==0 && size > 1)
+                              size /= 2;
+                         else
+                              lod = Math.min(lod+1,max_lod);
+                    }
+               cell_length = cell_height = size;
+               offscreen = null;
+               setView(cx - pixelsToCells(px,cell_length),cy - pixelsToCells(py,cell_height));
+               canvas.repaint();
+          }
+
+     /**@return what cell n of frame counts as in the density pyramid*/
+     private static byte densityKind(WorldSnapshot frame, int n)
+          {
+               if(frame.contents[n]==Robot.GridObject.SELF)
+                    return DensityPyramid.ROBOT;
+               if(frame.contents[n]==Robot.GridObject.WALL || frame.contents[n]==Robot.GridObject.FORT)
+                    return DensityPyramid.TERRAIN;
+               return DensityPyramid.NOTHING;
+          }
+
+     private void buildPyramid()
+          {
+               pyramid = new DensityPyramid(length,width);
+               if(showing!=null)
+                    for(int n=0; n<length*width; n++)
+                         pyramid.set(n/width,n%width,densityKind(showing,n));
+          }
+
+     /**Shades pixel (px,py) of the offscreen image by the densities of the block it shows*/
+     private void drawBlock(int px, int py)
+          {
+               if(px < 0 || py < 0 || px >= offscreen.getWidth() || py >= offscreen.getHeight())
+                    return;
+               final int bx = (view_x >> lod) + px, by = (view_y >> lod) + py;
+               if(!pyramid.contains(lod,bx,by))
+               {
+                    offscreen.setRGB(px,py,Color.WHITE.getRGB());
+                    return;
+               }
+
+               //Any robots show as red, deeper the more there are; otherwise obstacles as gray
+               final double area = 1 << (2*lod);
+               final int robots = pyramid.robots(lod,bx,by);
+               final int terrain = pyramid.terrain(lod,bx,by);
+               if(robots > 0)
+                    offscreen.setRGB(px,py,shade(Color.RED,Math.min(1.0,0.35 + robots*8/area)));
+               else if(terrain > 0)
+                    offscreen.setRGB(px,py,shade(Color.BLACK,Math.min(1.0,0.15 + terrain/area)));
+               else
+                    offscreen.setRGB(px,py,Color.WHITE.getRGB());
+          }
+
+     /**@return RGB of white blended toward color by t (0 to 1)*/
+     private static int shade(Color color, double t)
+          {
+               final int r = (int)(255 + (color.getRed()-255)*t);
+               final int g = (int)(255 + (color.getGreen()-255)*t);
+               final int b = (int)(255 + (color.getBlue()-255)*t);
+               return (r << 16) | (g << 8) | b;
+          }
+
+     /**Draws cell (x,y) of the snapshot on display, or an empty cell if there's none*/
+     private void drawCell(Graphics g, int x, int y)
+          {
+               //Position in the view
+               final int i = x - view_x, j = y - view_y;
+
+               //Clear the cell, leaving its grid lines
+               g.setColor(Color.WHITE);
+               g.fillRect(i*cell_length,j*cell_height,cell_length,cell_height);
+               if(cell_length >= MIN_GRID_CELL && cell_height >= MIN_GRID_CELL)
+               {
+                    g.setColor(Color.BLACK);
+                    g.drawLine(i*cell_length,j*cell_height,(i+1)*cell_length,j*cell_height);
+                    g.drawLine(i*cell_length,j*cell_height,i*cell_length,(j+1)*cell_height);
+               }
+
+               //If there's no current sim, the cell stays empty
+               if(showing==null)
+                    return;
+
+               final int n = x*width + y;
+               switch(showing.contents[n])
+               {
+               case BLOCKED:
+                    //Draw a black 'X' in the cell
+                    g.setColor(Color.BLACK);
+                    g.drawLine(i*cell_length,j*cell_height,(i+1)*cell_length,(j+1)*cell_height);
+                    g.drawLine(i*cell_length,(j+1)*cell_height,(i+1)*cell_length,j*cell_height);
+                    break;
+               case SELF:
+                    //Fill rectangle with color representing player
+                    g.setColor(colorMap.get(showing.occupant_player[n]));
+                    g.fillRect(i*cell_length,j*cell_height,cell_length,cell_height);
+                    break;
+               case WALL:
+                    g.setColor(Color.BLACK);
+                    g.fillRect(i*cell_length,j*cell_height,cell_length,cell_height);
+                    break;
+               case FORT:
+                    g.setColor(Color.BLACK);
+                    switch(showing.fort_orientation[n])
+                    {
+                    case UP:
+                         g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,(int)((i+0.5)*cell_length),j*cell_height);
+                         g.drawLine((int)((i+0.5)*cell_length),j*cell_height,i*cell_length,(j+1)*cell_height);
+                         g.drawLine((int)((i+0.5)*cell_length),j*cell_height,(i+1)*cell_length,(j+1)*cell_height);
+                         break;
+                    case DOWN:
+                         g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,(int)((i+0.5)*cell_length),j*cell_height);
+                         g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,i*cell_length,j*cell_height);
+                         g.drawLine((int)((i+0.5)*cell_length),(j+1)*cell_height,(i+1)*cell_length,j*cell_height);
+                         break;
+                    case LEFT:
+                         g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,(int)((j+0.5)*cell_height));
+                         g.drawLine((i+1)*cell_length,(int)((j+0.5)*cell_height),i*cell_length,j*cell_height);
+                         g.drawLine((i+1)*cell_length,(int)((j+0.5)*cell_height),i*cell_length,(j+1)*cell_height);
+                         break;
+                    case RIGHT:
+                         g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,(int)((j+0.5)*cell_height));
+                         g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,j*cell_height);
+                         g.drawLine(i*cell_length,(int)((j+0.5)*cell_height),(i+1)*cell_length,(j+1)*cell_height);
+                         break;
+                    }
+                    break;
+               case CAPSULE:
+                    g.setColor(Color.BLACK);
+                    g.drawOval(i*cell_length,j*cell_height,cell_length,cell_height);
+                    break;
+               }
+          }
+
 	public static void main(String[] args)
 	{
          int x=20, y=20, skill_points=20, bots_per_player=5, obstacles=30;
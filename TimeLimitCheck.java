@@ -0,0 +1,78 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TimeLimitCheck: checks that robots which never return from act() can't
+ * hold up a match played in simultaneous-turn mode.<br><br>
+ * Plays a few turns with more looping robots than decision threads, under
+ * a wall-clock limit, and checks that every turn finishes, that every
+ * looping robot is caught each turn, and that the well-behaved robots
+ * never are.  Gives up and reports failure if the match stalls.<br><br>
+ * Usage: java TimeLimitCheck [looping robots] [threads] [turns]
+ */
+public class TimeLimitCheck
+{
+     private static final long WALL_LIMIT = 50;
+
+     /**Robot that never returns from act()*/
+     public static class LoopBot extends DemoBot
+     {
+          public void act(WorldAPI api, Robot_Status status, byte[][] received_radio)
+               {
+                    while(true)
+                         Thread.yield();
+               }
+     }
+
+     public static void main(String[] args) throws Exception
+          {
+               final int loopers = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+               final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+               final int turns = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+               final String looper = LoopBot.class.getName();
+
+               PrintStream out = System.out;
+               System.setOut(new PrintStream(new ByteArrayOutputStream()));
+               final RoboSim sim = new RoboSim(new String[]{ looper, "DefenderBot" },loopers,20,30,30,20,1);
+               sim.setTimeLimits(WALL_LIMIT,0,false);
+               ExecutorService pool = Executors.newFixedThreadPool(threads);
+               sim.setSimultaneousTurns(pool);
+
+               //Play on another thread, so a stall can be reported instead of hanging us too
+               final int[] played = new int[1];
+               Thread match = new Thread("match") {
+                         public void run()
+                              {
+                                   try
+                                   {
+                                        for(int turn=0; turn<turns; turn++)
+                                        {
+                                             sim.executeSingleTimeStep();
+                                             played[0]++;
+                                        }
+                                   }
+                                   catch(RoboSim.RoboSimExecutionException e)
+                                   {
+                                        System.err.println(e.getMessage());
+                                   }
+                              }
+                    };
+               match.setDaemon(true);
+               match.start();
+               match.join(turns*(loopers+1)*WALL_LIMIT*4 + 5000);
+               System.setOut(out);
+               pool.shutdownNow();
+
+               final int caught = sim.getViolationCount(looper);
+               final int wrongly = sim.getViolationCount("DefenderBot");
+               System.out.println(loopers + " looping robots on " + threads + " threads: " + played[0] + "/" + turns + " turns, " + caught + " violations, " + wrongly + " by DefenderBot");
+               if(match.isAlive() || caught!=loopers*turns || wrongly!=0)
+               {
+                    System.out.println("FAILED");
+                    System.exit(1);
+               }
+               System.out.println("Looping robots didn't hold up the match");
+          }
+}
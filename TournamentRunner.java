@@ -0,0 +1,397 @@
+/**
+ * TournamentRunner: plays many matches without a GUI, in parallel.<br><br>
+ * Every match gets a RoboSim of its own and runs start to finish on one
+ * thread of a ForkJoinPool, so with enough matches every core stays busy.
+ * Results are written to the results file as matches finish (in whatever
+ * order that is), one tab-separated line per match, so a long run can be
+ * watched with tail -f and a crash loses nothing already played.<br><br>
+ * Robots from different matches run at the same time, so a Robot class
+ * that keeps state in static fields will see its other matches' state.
+ * <br><br>
+ * Usage: java TournamentRunner [options] player1 player2 ...<br>
+ * -per-match N: players in each match (default 2).  Every combination of N
+ *               players is played; use the number of players for a single
+ *               free-for-all.<br>
+ * -games N: times to play each combination (default 1)<br>
+ * -threads N: matches to run at once (default: number of cores)<br>
+ * -turns N: turns after which a match is called a draw (default 5000)<br>
+ * -size LENGTHxWIDTH, -skill N, -robots N, -obstacles N: same as the
+ *               arguments to SimulatorGUI (default 20x20, 20, 5, 30)<br>
+ * -wall-limit MS, -cpu-limit MS: time each robot's act() may take by the
+ *               clock and in CPU time (default: no limit)<br>
+ * -forfeit: destroy robots that break a time limit instead of just cutting
+ *               their turn short<br>
+ * -seed N: tournament seed; the same seed and options replay the same
+ *               tournament (default: random)<br>
+ * -out FILE: results file (default results.tsv)<br><br>
+ * Each match's seed is in the results, so any one match can be replayed
+ * on its own by passing it to RoboSim's constructor.
+ */
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+public class TournamentRunner
+{
+     /**Outcome of one match*/
+     public static class MatchResult
+     {
+          /**Position of the match in the list given to run()*/
+          public int match;
+
+          /**Robot classes that took part*/
+          public String[] players;
+
+          /**Seed the match was played with*/
+          public long seed;
+
+          /**Winning player, or null if nobody won*/
+          public String winner;
+
+          /**Number of turns played*/
+          public int turns;
+
+          /**Why the match was stopped early, or null if it wasn't*/
+          public String error;
+
+          /**Player whose robot caused the error, or null*/
+          public String fault;
+
+          /**Time limits broken by each player's robots, indexed like players*/
+          public int[] violations;
+
+          /**Robots each player had left at the end, indexed like players*/
+          public int[] survivors;
+
+          /**@return tab-separated line for the results file*/
+          public String toString()
+               {
+                    StringBuilder line = new StringBuilder();
+                    line.append(match).append('\t');
+                    line.append(seed).append('\t');
+                    for(int i=0; i<players.length; i++)
+                         line.append(i==0 ? "" : ",").append(players[i]);
+                    line.append('\t').append(winner==null ? "-" : winner);
+                    line.append('\t').append(turns);
+                    line.append('\t');
+                    for(int i=0; i<players.length; i++)
+                         line.append(i==0 ? "" : ",").append(survivors[i]);
+                    line.append('\t').append(fault==null ? "-" : fault);
+                    line.append('\t');
+                    for(int i=0; i<players.length; i++)
+                         line.append(i==0 ? "" : ",").append(violations[i]);
+                    line.append('\t').append(error==null ? "-" : error.replace('\t',' ').replace('\n',' '));
+                    return line.toString();
+               }
+     }
+
+     /**Header line of the results file*/
+     public static final String HEADER = "match\tseed\tplayers\twinner\tturns\tsurvivors\tfault\tviolations\terror";
+
+     //Parameters for each RoboSim
+     private final int length, width, skill_points, robots_per_player, obstacles;
+
+     //Turn limit per match
+     private final int max_turns;
+
+     //Matches run at once
+     private final int parallelism;
+
+     //Time limits for each robot's act(), as for RoboSim.setTimeLimits()
+     private long wall_limit, cpu_limit;
+     private boolean forfeit;
+
+     /**
+      * @param length_ length of each arena
+      * @param width_ width of each arena
+      * @param skill_points_ skill points per robot
+      * @param robots_per_player_ robots each player starts with
+      * @param obstacles_ number of obstacles in each arena
+      * @param max_turns_ turns after which a match is a draw
+      * @param parallelism_ number of matches to run at once
+      */
+     public TournamentRunner(int length_, int width_, int skill_points_, int robots_per_player_, int obstacles_, int max_turns_, int parallelism_)
+          {
+               if(max_turns_ <= 0 || parallelism_ <= 0)
+                    throw new IllegalArgumentException("turn limit and parallelism must be positive");
+               length = length_;
+               width = width_;
+               skill_points = skill_points_;
+               robots_per_player = robots_per_player_;
+               obstacles = obstacles_;
+               max_turns = max_turns_;
+               parallelism = parallelism_;
+          }
+
+     /**
+      * Sets time limits for every robot in every match; see
+      * RoboSim.setTimeLimits().
+      */
+     public void setTimeLimits(long wall_millis, long cpu_millis, boolean forfeit_)
+          {
+               wall_limit = wall_millis;
+               cpu_limit = cpu_millis;
+               forfeit = forfeit_;
+          }
+
+     /**
+      * Lists the matches of a round-robin tournament.
+      * @param players Robot class names
+      * @param per_match players in each match
+      * @param games times to play each combination of players
+      * @return every combination of per_match players, games times over
+      */
+     public static List<String[]> roundRobin(String[] players, int per_match, int games)
+          {
+               if(per_match < 1 || per_match > players.length)
+                    throw new IllegalArgumentException("can't have "+per_match+" of "+players.length+" players in a match");
+
+               List<String[]> to_return = new ArrayList<String[]>();
+               for(int game=0; game<games; game++)
+               {
+                    //Walk through the combinations in lexicographic order of player positions
+                    int[] chosen = new int[per_match];
+                    for(int i=0; i<per_match; i++)
+                         chosen[i] = i;
+                    while(true)
+                    {
+                         String[] match = new String[per_match];
+                         for(int i=0; i<per_match; i++)
+                              match[i] = players[chosen[i]];
+                         to_return.add(match);
+
+                         int i = per_match-1;
+                         while(i >= 0 && chosen[i]==players.length-per_match+i)
+                              i--;
+                         if(i < 0)
+                              break;
+                         chosen[i]++;
+                         for(int j=i+1; j<per_match; j++)
+                              chosen[j] = chosen[j-1]+1;
+                    }
+               }
+               return to_return;
+          }
+
+     /**
+      * Plays one match to the end, the turn limit, or the first error.
+      * Runs on the calling thread.
+      * @param match number to put in the result
+      * @param players Robot class names
+      * @param seed seed for the match's RoboSim
+      * @return outcome of the match
+      */
+     public MatchResult playMatch(int match, String[] players, long seed)
+          {
+               RoboSim sim;
+               try
+               {
+                    sim = new RoboSim(players,robots_per_player,skill_points,length,width,obstacles,seed);
+               }
+               catch(RoboSim.RoboSimExecutionException e)
+               {
+                    MatchResult result = newResult(match,players,seed);
+                    result.error = e.getMessage();
+                    result.fault = e.player;
+                    return result;
+               }
+               catch(RuntimeException e)
+               {
+                    MatchResult result = newResult(match,players,seed);
+                    result.error = e.toString();
+                    return result;
+               }
+               sim.setTimeLimits(wall_limit,cpu_limit,forfeit);
+               return playMatch(match,players,sim,max_turns);
+          }
+
+     /**
+      * Plays a match that is already set up to the end, the turn limit, or
+      * the first error.  Runs on the calling thread.
+      * @param match number to put in the result
+      * @param players Robot class names, as given to sim's constructor
+      * @param sim the match
+      * @param max_turns turns after which the match is a draw
+      * @return outcome of the match
+      */
+     public static MatchResult playMatch(int match, String[] players, RoboSim sim, int max_turns)
+          {
+               MatchResult result = newResult(match,players,sim.getSeed());
+               try
+               {
+                    while(result.winner==null && result.turns < max_turns)
+                    {
+                         result.winner = sim.executeSingleTimeStep();
+                         result.turns++;
+                    }
+               }
+               catch(RoboSim.RoboSimExecutionException e)
+               {
+                    result.error = e.getMessage();
+                    result.fault = e.player;
+               }
+               catch(RuntimeException e)
+               {
+                    //Student code blew up; we can't tell whose
+                    result.error = e.toString();
+               }
+
+               RoboSim.Standing[] standings = sim.getStandings();
+               for(int i=0; i<players.length; i++)
+               {
+                    result.violations[i] = sim.getViolationCount(players[i]);
+                    for(RoboSim.Standing standing : standings)
+                         if(standing.player.equals(players[i]))
+                              result.survivors[i] = standing.robots;
+               }
+               return result;
+          }
+
+     private static MatchResult newResult(int match, String[] players, long seed)
+          {
+               MatchResult result = new MatchResult();
+               result.match = match;
+               result.players = players;
+               result.seed = seed;
+               result.violations = new int[players.length];
+               result.survivors = new int[players.length];
+               return result;
+          }
+
+     /**
+      * Plays all the matches, parallelism at a time, writing each result
+      * to out as soon as its match is over.
+      * @param matches players of each match
+      * @param seed seed from which every match's seed is derived
+      * @param out where to write results; flushed after every line
+      * @return results, indexed like matches
+      */
+     public MatchResult[] run(List<String[]> matches, long seed, PrintWriter out) throws InterruptedException
+          {
+               //Drawn up front, so a match's seed doesn't depend on when it gets to run
+               SplittableRandom seeds = new SplittableRandom(seed);
+
+               ForkJoinPool pool = new ForkJoinPool(parallelism);
+               try
+               {
+                    CompletionService<MatchResult> done = new ExecutorCompletionService<MatchResult>(pool);
+                    for(int i=0; i<matches.size(); i++)
+                    {
+                         final int match = i;
+                         final String[] players = matches.get(i);
+                         final long match_seed = seeds.nextLong();
+                         done.submit(new Callable<MatchResult>() {
+                                   public MatchResult call() { return playMatch(match,players,match_seed); }
+                              });
+                    }
+
+                    MatchResult[] to_return = new MatchResult[matches.size()];
+                    out.println(HEADER);
+                    for(int i=0; i<matches.size(); i++)
+                    {
+                         MatchResult result;
+                         try
+                         {
+                              result = done.take().get();
+                         }
+                         catch(ExecutionException e)
+                         {
+                              //playMatch() catches everything a robot can reasonably throw
+                              throw new RuntimeException("match crashed the tournament: "+e.getCause(),e.getCause());
+                         }
+                         to_return[result.match] = result;
+                         out.println(result);
+                         out.flush();
+                    }
+                    return to_return;
+               }
+               finally
+               {
+                    pool.shutdownNow();
+               }
+          }
+
+     public static void main(String[] args) throws IOException, InterruptedException
+          {
+               int length=20, width=20, skill_points=20, robots=5, obstacles=30;
+               int per_match=2, games=1, max_turns=5000;
+               long wall_limit=0, cpu_limit=0;
+               boolean forfeit=false;
+               int threads=Runtime.getRuntime().availableProcessors();
+               long seed = new SplittableRandom().nextLong();
+               String out_name = "results.tsv";
+               List<String> players = new ArrayList<String>();
+
+               for(int i=0; i<args.length; i++)
+                    if(!args[i].startsWith("-"))
+                         players.add(args[i]);
+                    else if(args[i].equals("-forfeit"))
+                         forfeit = true;
+                    else if(i+1==args.length)
+                    {
+                         System.err.println("Missing value for "+args[i]);
+                         System.exit(1);
+                    }
+                    else if(args[i].equals("-size"))
+                    {
+                         String[] size = args[++i].split("x");
+                         length = Integer.parseInt(size[0]);
+                         width = Integer.parseInt(size[1]);
+                    }
+                    else if(args[i].equals("-skill"))
+                         skill_points = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-robots"))
+                         robots = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-obstacles"))
+                         obstacles = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-per-match"))
+                         per_match = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-games"))
+                         games = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-turns"))
+                         max_turns = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-threads"))
+                         threads = Integer.parseInt(args[++i]);
+                    else if(args[i].equals("-wall-limit"))
+                         wall_limit = Long.parseLong(args[++i]);
+                    else if(args[i].equals("-cpu-limit"))
+                         cpu_limit = Long.parseLong(args[++i]);
+                    else if(args[i].equals("-seed"))
+                         seed = Long.parseLong(args[++i]);
+                    else if(args[i].equals("-out"))
+                         out_name = args[++i];
+                    else
+                    {
+                         System.err.println("Unknown option "+args[i]);
+                         System.exit(1);
+                    }
+
+               if(players.size() < per_match)
+               {
+                    System.err.println("Usage: java TournamentRunner [options] player1 player2 ...");
+                    System.exit(1);
+               }
+
+               List<String[]> matches = roundRobin(players.toArray(new String[0]),per_match,games);
+               TournamentRunner runner = new TournamentRunner(length,width,skill_points,robots,obstacles,max_turns,threads);
+               runner.setTimeLimits(wall_limit,cpu_limit,forfeit);
+               PrintWriter out = new PrintWriter(new FileWriter(out_name));
+               try
+               {
+                    long start = System.nanoTime();
+                    runner.run(matches,seed,out);
+                    System.out.println(matches.size()+" matches on "+threads+" threads in "+(System.nanoTime()-start)/1000000+" ms (seed "+seed+"); results in "+out_name);
+               }
+               finally
+               {
+                    out.close();
+               }
+          }
+}
@@ -3,7 +3,14 @@
  * Provides callbacks into Simulator so your Robot can take actions in the
  * virtual world.<br>
  * The underlying class type is an inner class defined inside the simulator
- * which is opaque to your robot.
+ * which is opaque to your robot.<br><br>
+ * The simulator may be run in simultaneous-turn mode, where all robots
+ * decide at once and act afterward.  In that mode the methods that change
+ * the world only record what you asked for; attacks return null, and
+ * questions about the world (and your build status) are answered as of the
+ * start of the turn.  Your actions are carried out once every robot has
+ * decided, and if one turns out to be impossible by then, it and the rest
+ * of your actions for that turn are skipped.
  */
 public interface WorldAPI
 {
@@ -167,15 +174,52 @@ public interface WorldAPI
 
      /**
       * Gets a copy of the portion of the world visible to the robot.
-      * Range is equal to defense skill.  Does not cost any power.
+      * Range is equal to defense skill.  Does not cost any power.<br>
+      * The copy is yours: change it as you like, it won't affect anything
+      * else.  To look around every turn without creating any objects, use
+      * getVisibleNeighborhood(byte[],int[],int[]) instead.
       * @return a 2-dimensional array containing a GridCell for each cell
       *         visible to the robot.
       */
      Robot.GridCell[][] getVisibleNeighborhood();
 
+     /**
+      * Gets the same portion of the world as getVisibleNeighborhood(), but
+      * writes it into arrays you own instead of creating any objects, so a
+      * robot that looks around every turn can reuse the same buffers.
+      * Does not cost any power.<br>
+      * Cell (region[0]+i, region[1]+j) is stored at element i*region[3]+j
+      * of each buffer.  The region is never bigger than
+      * (2*defense+1) by (2*defense+1) cells, so buffers of that size are
+      * always big enough.
+      * @param contents receives the GridObject ordinal of each cell
+      *                 (compare against GridObject.values()); your own
+      *                 cell is SELF, other robots are ALLY or ENEMY
+      * @param details receives the capsule power of each CAPSULE cell and
+      *                the Direction ordinal of each FORT cell, and 0 for
+      *                every other cell.  May be null if you don't need it.
+      * @param region receives the x and y coordinates of the region's
+      *               corner nearest (0,0), then its size along x and
+      *               along y; must have at least 4 elements
+      * @return number of cells written
+      */
+     int getVisibleNeighborhood(byte[] contents, int[] details, int[] region) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * Counts the cells of one kind within the part of the world visible
+      * to the robot (the area getVisibleNeighborhood() covers).  Much
+      * quicker than getting the neighborhood and counting yourself.  Does
+      * not cost any power.
+      * @param kind what to count; ALLY and ENEMY count robots, and ALLY
+      *             doesn't count us
+      * @return number of such cells in view
+      */
+     int countVisible(Robot.GridObject kind) throws RoboSim.RoboSimExecutionException;
+
      /**
       * Gets a copy of the entire world.  Takes 3 power, plus additional if
       * jamming is taking place (which won't be; jamming is not implemented).
+      * As with getVisibleNeighborhood(), the copy is yours to change.
       * @param power to spend attempting to get the world
       * @return a 2-dimensional array containing a GridCell for each cell in
       *         the world.  Will be null if jamming has prevented the world
@@ -183,6 +227,112 @@ public interface WorldAPI
       */
      Robot.GridCell[][] getWorld(int power) throws RoboSim.RoboSimExecutionException;
 
+     /**
+      * Gets the entire world like getWorld(), but writes it into arrays you
+      * own instead of creating a GridCell for every cell, the way
+      * getVisibleNeighborhood(byte[],int[],int[]) does for the cells in
+      * view.  Same power as getWorld().<br>
+      * Cell (x,y) is stored at element x*region[3]+y of each buffer.  If a
+      * buffer is too small, only region is filled in, so the first call
+      * can be made with empty buffers to learn how big they must be.
+      * @param contents receives the GridObject ordinal of each cell, as for
+      *                 getVisibleNeighborhood(byte[],int[],int[])
+      * @param details receives capsule power and fort orientation, as for
+      *                getVisibleNeighborhood(byte[],int[],int[]).  May be
+      *                null if you don't need it.
+      * @param region receives 0, 0, then the size of the world along x and
+      *               along y; must have at least 4 elements
+      * @param power to spend attempting to get the world
+      * @return number of cells written, or -1 if the buffers are too small
+      */
+     int getWorld(byte[] contents, int[] details, int[] region, int power) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * @return number of the current turn: 0 during the first turn, 1
+      *         during the second, and so on.  Free.
+      */
+     int getTurn();
+
+     /**
+      * Gets the cells that have changed since a given turn, so a robot can
+      * keep its own copy of the world up to date without calling
+      * getWorld() every turn.  Takes 3 power, like getWorld().<br>
+      * Changes made during since_turn itself are included, so passing the
+      * getTurn() value from when you last saw the world never misses
+      * anything.  Each cell appears once, showing its current state, in
+      * no particular order.  The cells are copies, as with getWorld().
+      * @param since_turn first turn whose changes you want
+      * @param power power to spend (must be 3)
+      * @return the changed cells, or null if since_turn is too long ago
+      *         for the simulator to remember (call getWorld() instead)
+      */
+     Robot.GridCell[] getChangedCells(int since_turn, int power) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * Gets the cells that have changed since this robot last called
+      * getWorld() or getChangedCells().  Takes 3 power.
+      * @param power power to spend (must be 3)
+      * @return the changed cells, or null if this robot hasn't looked at
+      *         the world before or did so too long ago (call getWorld()
+      *         instead)
+      */
+     Robot.GridCell[] getChangedCells(int power) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * Gets a distance field covering the entire world toward the nearest
+      * cell of a given kind, as seen from your team: ENEMY means robots of
+      * other teams.  Takes 3 power, like getWorld() (which it's meant to
+      * replace for robots that only want to know which way to go).<br>
+      * ALLY isn't allowed: your own cell would always be the nearest ally,
+      * so the field would never lead anywhere.  To gather your robots,
+      * pick a rally cell and use getDistanceField(GridCell,int).<br>
+      * The simulator computes each field once per turn, the first time
+      * anyone on your team asks for it, and hands the same read-only field
+      * to every ally who asks afterward.  It reflects the world as it was
+      * at that moment, not after moves made later in the turn.
+      * @param target kind of cell to measure distance to (not EMPTY, SELF
+      *               or ALLY)
+      * @param power power to spend (must be 3)
+      * @return distance field toward the nearest cell of that kind
+      */
+     DistanceField getDistanceField(Robot.GridObject target, int power) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * Gets a distance field covering the entire world toward one cell,
+      * such as a rally point.  Takes 3 power, like getWorld().  Shared
+      * and cached for the turn like getDistanceField(GridObject,int).
+      * @param rally cell to measure distance to
+      * @param power power to spend (must be 3)
+      * @return distance field toward rally
+      */
+     DistanceField getDistanceField(Robot.GridCell rally, int power) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * Plans a long route across the world from your cell to target.
+      * Takes 3 power, like getWorld().<br>
+      * The simulator keeps a hierarchical map of the world's walls and
+      * forts, so this stays fast even on huge worlds.  Only walls, forts and
+      * construction sites are avoided: robots and capsules in the way are
+      * ignored, so re-check the next few steps (e.g. with findShortestPath()
+      * on your visible neighborhood) as you follow the route.  The route is
+      * close to, but not always exactly, the shortest possible.
+      * @param target cell to plan a route to
+      * @param power power to spend (must be 3)
+      * @return the route (your cell excluded, target last), or null if
+      *         walls and forts cut target off from you
+      */
+     Robot.GridCell[] planRoute(Robot.GridCell target, int power) throws RoboSim.RoboSimExecutionException;
+
+     /**
+      * Finds the enemy robot nearest to us, counting steps the way
+      * findNearestAlly() does: straight through anything in the way.  Not
+      * limited to what we can see.  Takes 1 power.
+      * @param power power to spend (must be 1)
+      * @return cell of the nearest enemy robot (of those equally near, the
+      *         one created first), or null if there are no enemies left
+      */
+     Robot.GridCell findNearestEnemy(int power) throws RoboSim.RoboSimExecutionException;
+
      /**
       * Scans an enemy (or ally), retrieving information about the robot.
       * The cell scanned must be visible (within defense cells from us).<br>
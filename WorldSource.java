@@ -0,0 +1,22 @@
+/**
+ * WorldSource: a world SimulatorGUI can show, turn by turn: a RoboSim
+ * being played, or a ReplayReader playing one back.
+ */
+interface WorldSource
+{
+     /**@return the world, refreshed to the current turn*/
+     Robot.GridCell[][] getWorldGrid();
+
+     /**@return owner of the robot in a cell from getWorldGrid(), or null*/
+     String getOccupantPlayer(Robot.GridCell cell);
+
+     /**@return number of completed turns*/
+     int getTurn();
+
+     /**@return mark standing for every change to the world so far*/
+     long getChangeMark();
+
+     /**@return indices (x*width + y) of the cells changed since mark, each
+      *         once, or null if that's too long ago to tell*/
+     int[] getChangedCellIndices(long mark);
+}